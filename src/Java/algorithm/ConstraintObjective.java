@@ -0,0 +1,607 @@
+package algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import optimization.BatchedObject;
+import utility.Helper;
+import valueObject.Constants;
+import valueObject.ConstraintSet;
+
+/**
+ * Objective function of 3DMax for one set of constraints: log likelihood of the distances of a structure given the wish distances
+ * 
+ * Every instance has its own worker threads and buffers, so several optimizations can run at the same time,
+ * each with its own objective. shutdown() must be called when the objective is not used anymore
+ * 
+ * With a batch size K > 1, K structures are optimized together: the variables hold the K structures interleaved, 
+ * coordinate c of point i of structure b is x[(i * K + b) * 3 + c], and the objective is the sum of the objectives of the structures.
+ * One pass over the constraints updates all K structures, so the constraints are read from memory once for K structures
+ * 
+ * The residual pass splits the constraints among the threads. For one structure, the gradient pass splits the points: every point keeps the list
+ * of its constraints, so each thread writes the gradient of its own points and no thread needs a buffer for the whole gradient.
+ * The constraints of a point are added in their order, so the gradient of a point is summed up the same way whatever the number of threads.
+ * For a batch, the gradient pass goes over the constraints in the order of the residual pass, so the K ratios of a constraint are read 
+ * sequentially, and every thread adds its constraints to its own buffer. The buffers are kept from one evaluation to the next,
+ * and summed up by the pool as well, every thread sums up its own range of the gradient
+ * 
+ * The kernels go over the constraints in tile order (see ConstraintSet.toTileOrder), so that consecutive constraints share points
+ *
+ */
+public class ConstraintObjective implements BatchedObject{
+
+	private Helper helper = Helper.getHelperInstance();
+	
+	//constraints, each contains position i,j, IF, dist
+	private ConstraintSet constraints;
+	
+	//the same constraints in tile order, read by the kernels
+	private ConstraintSet tiles;
+	
+	//number of points
+	private int n;
+	
+	//worker threads evaluating the gradient, reused by every iteration
+	private ForkJoinPool workerPool;
+	
+	//one calculator per subset of constraints, reused by every iteration
+	private GradientCaculator[] gradCalculators;
+	
+	//(distance - wish distance) / distance of the current structures, K per constraint, filled by the residual pass and read by the gradient pass
+	private double[] ratios;
+	
+	//constraints of every point, constraints of point i are incident[offsets[i]] .. incident[offsets[i + 1] - 1] in increasing order,
+	//adjacent holds the other point of each of them. Only built for one structure
+	private int[] offsets;
+	private int[] incident;
+	private int[] adjacent;
+	
+	//gradient being calculated by the gradient pass
+	private double[] gradient;
+	
+	//number of structures optimized together
+	private int batchSize;
+	
+	//sum of squared residuals and chain rule factor of every structure of the batch
+	private double[] residuals;
+	
+	//objective function of every structure of the batch at the last evaluation
+	private double[] objectives;
+	private double[] chainFactors;
+	
+	/**
+	 * 
+	 * @param constraints
+	 * @param n: number of points
+	 * @param nbrThreads: maximum number of threads evaluating the objective, small inputs use less
+	 */
+	public ConstraintObjective(ConstraintSet constraints, int n, int nbrThreads){
+		this(constraints, n, nbrThreads, 1);
+	}
+	
+	/**
+	 * 
+	 * @param constraints
+	 * @param n: number of points
+	 * @param nbrThreads: maximum number of threads evaluating the objective, small inputs use less
+	 * @param batchSize: number of structures optimized together
+	 */
+	public ConstraintObjective(ConstraintSet constraints, int n, int nbrThreads, int batchSize){
+		this.constraints = constraints;
+		this.n = n;
+		
+		//small structures stay in cache anyway
+		tiles = n > 2 * Constants.TILE_SIZE ? constraints.toTileOrder(Constants.TILE_SIZE) : constraints;
+		this.batchSize = batchSize;
+		residuals = new double[batchSize];
+		objectives = new double[batchSize];
+		chainFactors = new double[batchSize];
+		
+		//small inputs are not worth splitting
+		nbrThreads = Math.max(1, Math.min(nbrThreads, constraints.size() / Constants.MIN_CONSTRAINTS_PER_THREAD));
+		
+		//divide the set of constraints into equal subsets, each will be processed by one thread
+		ArrayList<Integer> lstSubDataSetId = new ArrayList<Integer>();
+		helper.divideDataSet(constraints.size(), nbrThreads, lstSubDataSetId);
+		
+		//K ratios per constraint and K structures per point, both must fit in an array
+		try{
+			ratios = new double[Math.multiplyExact(constraints.size(), batchSize)];
+			Math.multiplyExact(n * 3, batchSize);
+		}catch(ArithmeticException e){
+			throw new IllegalArgumentException("A batch of " + batchSize + " structures of " + n + " points and " + constraints.size()
+					+ " constraints is too large for an array, use a smaller " + Constants.BATCH_SIZE_KEY, e);
+		}
+		
+		//the calling thread computes the first subset itself, the pool takes the others
+		workerPool = new ForkJoinPool(Math.max(1, lstSubDataSetId.size() - 1));
+		gradCalculators = new GradientCaculator[lstSubDataSetId.size()];
+		
+		if (batchSize > 1){
+			//the gradient pass of a batch goes over the same constraints as the residual pass, 
+			//the buffers are summed up by ranges of the same length
+			int len = n * 3 * batchSize;
+			for(int t = 0; t < gradCalculators.length; t++){
+				gradCalculators[t] = new GradientCaculator(t == 0 ? 0 : lstSubDataSetId.get(t - 1) + 1, lstSubDataSetId.get(t), 0, 0);
+				gradCalculators[t].sumBeg = (int) ((long) len * t / gradCalculators.length);
+				gradCalculators[t].sumEnd = (int) ((long) len * (t + 1) / gradCalculators.length);
+			}
+			return;
+		}
+		
+		buildIncidence();
+		
+		//points are divided so that every subset has about the same number of constraints
+		int total = offsets[n], pointBeg = 0, pointEnd;
+		for(int t = 0; t < gradCalculators.length; t++){
+			pointEnd = pointBeg;
+			long target = (long) total * (t + 1) / gradCalculators.length;
+			while(pointEnd < n && offsets[pointEnd + 1] <= target){
+				pointEnd++;
+			}
+			if (t == gradCalculators.length - 1){
+				pointEnd = n;
+			}
+			gradCalculators[t] = new GradientCaculator(t == 0 ? 0 : lstSubDataSetId.get(t - 1) + 1, lstSubDataSetId.get(t), pointBeg, pointEnd);
+			pointBeg = pointEnd;
+		}
+	}
+	
+	/**
+	 * Build the lists of constraints of every point, constraints with IF <= 0 are left out as in the residual pass
+	 */
+	private void buildIncidence(){
+		int[] pos1 = tiles.getPos1(), pos2 = tiles.getPos2();
+		double[] IF = tiles.getIF();
+		int m = tiles.size();
+		
+		offsets = new int[n + 1];
+		for(int k = 0; k < m; k++){
+			if (IF[k] <= 0) continue;
+			offsets[pos1[k] + 1]++;
+			offsets[pos2[k] + 1]++;
+		}
+		for(int i = 0; i < n; i++){
+			offsets[i + 1] += offsets[i];
+		}
+		
+		incident = new int[offsets[n]];
+		adjacent = new int[offsets[n]];
+		int[] next = Arrays.copyOf(offsets, n);
+		for(int k = 0; k < m; k++){
+			if (IF[k] <= 0) continue;
+			incident[next[pos1[k]]] = k;
+			adjacent[next[pos1[k]]++] = pos2[k];
+			incident[next[pos2[k]]] = k;
+			adjacent[next[pos2[k]]++] = pos1[k];
+		}
+	}
+	
+	/**
+	 * Release the worker threads
+	 */
+	public void shutdown(){
+		workerPool.shutdown();
+	}
+	
+	/**
+	 * 
+	 * @return number of threads evaluating the objective
+	 */
+	public int getNumberOfThreads(){
+		return gradCalculators.length;
+	}
+	
+	public ConstraintSet getConstraints() {
+		return constraints;
+	}
+	
+	public int getNumberOfPoints() {
+		return n;
+	}
+	
+	@Override
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	@Override
+	public double getObjective(int b) {
+		return objectives[b];
+	}
+	
+	/**
+	 * Copy a structure into the variables of a batch
+	 * @param str: coordinates of one structure
+	 * @param x: variables of the batch
+	 * @param b: index of the structure in the batch
+	 */
+	public void setStructure(double[] str, double[] x, int b){
+		for(int i = 0; i < n; i++){
+			for(int c = 0; c < 3; c++){
+				x[(i * batchSize + b) * 3 + c] = str[i * 3 + c];
+			}
+		}
+	}
+	
+	/**
+	 * Copy a structure out of the variables of a batch
+	 * @param x: variables of the batch
+	 * @param b: index of the structure in the batch
+	 * @param str: receives the coordinates of the structure
+	 */
+	public void getStructure(double[] x, int b, double[] str){
+		for(int i = 0; i < n; i++){
+			for(int c = 0; c < 3; c++){
+				str[i * 3 + c] = x[(i * batchSize + b) * 3 + c];
+			}
+		}
+	}
+	
+	/**
+	 * Calculate objective function and gradient
+	 * 
+	 * the chain rule factor of every constraint depends on the sum of squared residuals over all constraints,
+	 * so the calculation is done in two passes: the residuals of every subset are summed up first,
+	 * then the gradient of every subset is calculated with the global factor.
+	 * Pairwise distances are only computed in the first pass, the second pass reads the residual ratios from ratios
+	 * and writes the gradient of every point directly into der.
+	 * Every structure of a batch has its own residuals and chain rule factor
+	 */
+	@Override
+	public double calGradientAndObjective(double[] x, double[] der)
+			throws InterruptedException {
+		
+		double cost = 0.0;
+		double v = 0.0;
+		
+		GradientCaculator[] gradCalculator = gradCalculators;
+		
+		//first pass, sum of squared residuals
+		for(int i = 0; i < gradCalculator.length; i++){
+			gradCalculator[i].prepare(x, false);
+		}
+		invokeCalculators();
+		
+		for(int b = 0; b < batchSize; b++){
+			v = 0.0;
+			for(int i = 0; i < gradCalculator.length; i++){
+				v += gradCalculator[i].getResidual()[b];
+			}
+			residuals[b] = v;
+			
+			objectives[b] = -(n/2) - (n*Math.log(Math.sqrt(v/n)));
+			cost += objectives[b];
+		}
+	
+		if (der != null){
+			//second pass, gradient of every subset
+			for(int b = 0; b < batchSize; b++){
+				chainFactors[b] = gradient_chain_calc(residuals[b]);
+			}
+			gradient = der;
+			for(int i = 0; i < gradCalculator.length; i++){
+				gradCalculator[i].prepare(x, true);
+			}
+			invokeCalculators();
+			
+			//the first calculator of a batch writes into der, the others into their own buffers, which are added to der by the pool
+			if (batchSize > 1 && gradCalculator.length > 1){
+				for(int i = 0; i < gradCalculator.length; i++){
+					gradCalculator[i].prepareSum();
+				}
+				invokeCalculators();
+			}
+			gradient = null;
+		}		
+		
+		return cost;
+		
+	}
+	
+	/**
+	 * Run all calculators, the other subsets are handed over to the pool, the first one is computed in this thread
+	 * @throws InterruptedException
+	 */
+	private void invokeCalculators() throws InterruptedException{
+		
+		for(int i = 1; i < gradCalculators.length; i++){
+			workerPool.execute(gradCalculators[i]);
+		}
+		gradCalculators[0].invoke();
+		
+		//wait for all workers to finish
+		for(int i = 1; i < gradCalculators.length; i++){
+			gradCalculators[i].join();
+		}
+		
+		if (Thread.interrupted()){
+			throw new InterruptedException("Gradient calculation was interrupted");
+		}
+	}
+	
+	/**
+	 * Calculate the chain rule derivative for the gradient calculation
+	 * @param v: sum of squared residuals over all constraints
+	 * @return dl_dw * dw_dv, the factor shared by the gradient of every constraint
+	 * @author Tosin
+	 */
+	private double gradient_chain_calc(double v) {
+		double w,dl_dw,dw_dv;
+		
+		w = Math.sqrt(v/n);
+		dl_dw = -n/w;
+		dw_dv = 1/(2*Math.sqrt(n*v));
+		// System.out.printf("The n = %d , v = %f, np*v = %f, sqrt = %f, 2*sqrt = %f, 1over = %f\n",n, v , n*v, Math.sqrt(n*v), 2*Math.sqrt(n*v), 	dw_dv );
+		
+		return dl_dw * dw_dv;
+	}
+
+	/**
+	 * calculate objective function only
+	 */
+	@Override
+	public double calObjective(double[] x) throws InterruptedException {
+		
+		return calGradientAndObjective(x,null);
+	}
+	
+	
+	/**
+	 * This class is used to calculate the gradient for a subset of datapoints
+	 * in a single threaded program, all data points are i = 1 .. n and j = i+1 ... n
+	 * to calculate the gradient in parallel, one thread will be in charged of calculating for i = begin ... end
+	 * 
+	 * for any modification of the objective function, this function will need to be modified accordingly
+	 * 
+	 * calculators are created once per objective and resubmitted to the worker pool at every iteration.
+	 * The residual pass goes over the constraints beg .. end, the gradient pass over the points pointBeg .. pointEnd - 1,
+	 * whose gradient is written by this calculator only
+	 * @author Tuan
+	 *
+	 */
+	class GradientCaculator extends RecursiveAction{
+		
+		private static final long serialVersionUID = 1L;
+		
+		//the first index to calculate the residuals
+		private int beg;
+		//the last index to calculate the residuals
+		private int end;
+		//the first point to calculate the gradient
+		private int pointBeg;
+		//the point after the last one to calculate the gradient
+		private int pointEnd;
+		//sum of squared residuals of the subset, one per structure of the batch
+		double[] residual;
+		//doubled chain rule factors, one per structure of the batch
+		private double[] factors;
+		//gradient of the subset of a batch, the first calculator writes into the gradient itself
+		double[] change;
+		//range of the gradient of a batch where this calculator sums up the buffers of the others
+		private int sumBeg;
+		private int sumEnd;
+		//indicate if calculation for gradient is needed, otherwise only the residuals are summed up
+		boolean isGradientNeeded;
+		//indicate if the buffers of the batch are summed up
+		boolean isSum;
+		
+		// number of points 
+		int np = 0; 
+		double[] structure;
+		
+		GradientCaculator(int b, int e, int pb, int pe){
+			this.beg = b;
+			this.end = e;
+			this.pointBeg = pb;
+			this.pointEnd = pe;
+			this.residual = new double[batchSize];
+			this.factors = new double[batchSize];
+		}
+		
+		/**
+		 * Reset the calculator before it is submitted again, the gradient uses the chain rule factors of the objective
+		 * @param str: structures to evaluate
+		 * @param isGradient: indicate if calculation for gradient is needed
+		 */
+		void prepare(double[] str, boolean isGradient){
+			reinitialize();
+			this.structure = str;
+			this.isGradientNeeded = isGradient;
+			this.isSum = false;
+			
+			//the buffer is cleared by the calculator itself, in the pool
+			if (isGradientNeeded && batchSize > 1){
+				if (beg == 0){
+					change = gradient;
+				}else if (change == null){
+					change = new double[n * 3 * batchSize];
+				}
+			}
+		}
+		
+		/**
+		 * Reset the calculator to sum up the buffers of the batch in its range, after the gradient pass
+		 */
+		void prepareSum(){
+			reinitialize();
+			this.isGradientNeeded = false;
+			this.isSum = true;
+		}
+		
+		@Override
+		protected void compute(){
+			if (isSum){
+				sumBuffers();
+			}else if (isGradientNeeded){
+				if (batchSize > 1){
+					calGradientBatch();
+				}else{
+					calGradient();
+				}
+			}else if (batchSize > 1){
+				calResidualBatch();
+			}else{
+				calResidual();
+			}
+		}
+		
+		/**
+		 * Sum up the squared residuals of the subset, the residual ratios are kept for the gradient pass
+		 */
+		private void calResidual(){
+			double dist,x,z,ifr;
+			double v = 0;
+			int i,j;
+			int[] pos1 = tiles.getPos1(), pos2 = tiles.getPos2();
+			double[] IF = tiles.getIF(), wishDist = tiles.getDist();
+			for(int k = beg; k <= end; k ++){
+				
+				i = pos1[k];
+				j = pos2[k];
+				dist = wishDist[k];
+				
+				ifr = IF[k];
+				
+				if (ifr <= 0) continue;
+				
+				// structure distance
+				x = Math.sqrt(helper.calEuclidianDist(structure[i * 3], structure[i * 3 + 1], 
+						structure[i * 3 + 2], structure[j * 3], structure[j * 3 + 1], structure[j * 3 + 2]));
+				
+				// IF distance = dist
+				z = x - dist;
+				v += z * z;
+				
+				ratios[k] = z / x;
+			}
+			
+			residual[0] = v;
+		}
+		
+		/**
+		 * Calculate the gradient of the points of the subset, using the residual ratios of the last residual pass
+		 */
+		private void calGradient(){
+			double tmp,gx,gy,gz,xi,yi,zi;
+			double chainFactor = chainFactors[0] * 2;
+			int i,j;
+			double[] der = gradient, s = structure;
+			for(i = pointBeg; i < pointEnd; i++){
+				gx = 0;
+				gy = 0;
+				gz = 0;
+				xi = s[i * 3];
+				yi = s[i * 3 + 1];
+				zi = s[i * 3 + 2];
+				for(int t = offsets[i]; t < offsets[i + 1]; t++){
+					j = adjacent[t] * 3;
+					
+					// the remaining part of dv_d(x,y,z)
+					tmp = chainFactor * ratios[incident[t]];
+					
+					gx += tmp * (xi - s[j]);
+					gy += tmp * (yi - s[j + 1]);
+					gz += tmp * (zi - s[j + 2]);
+				}
+				der[i * 3] = gx;
+				der[i * 3 + 1] = gy;
+				der[i * 3 + 2] = gz;
+			}
+		}
+
+		/**
+		 * Sum up the squared residuals of the subset for every structure of the batch
+		 */
+		private void calResidualBatch(){
+			double dist,x,z,dx,dy,dz;
+			int pi,pj,d,K = batchSize;
+			double[] v = residual;
+			Arrays.fill(v, 0);
+			int[] pos1 = tiles.getPos1(), pos2 = tiles.getPos2();
+			double[] IF = tiles.getIF(), wishDist = tiles.getDist();
+			for(int k = beg; k <= end; k ++){
+				
+				if (IF[k] <= 0) continue;
+				
+				dist = wishDist[k];
+				//coordinates of the K structures of a point are contiguous
+				pi = pos1[k] * K * 3;
+				pj = pos2[k] * K * 3;
+				d = k * K;
+				for(int b = 0; b < K; b++, pi += 3, pj += 3){
+					dx = structure[pi] - structure[pj];
+					dy = structure[pi + 1] - structure[pj + 1];
+					dz = structure[pi + 2] - structure[pj + 2];
+					x = Math.sqrt(dx * dx + dy * dy + dz * dz);
+					
+					z = x - dist;
+					v[b] += z * z;
+					
+					ratios[d + b] = z / x;
+				}
+			}
+		}
+		
+		/**
+		 * Calculate the gradient of the constraints of the subset for every structure of the batch, 
+		 * using the residual ratios of the last residual pass
+		 */
+		private void calGradientBatch(){
+			double tmp,dx,dy,dz;
+			int pi,pj,d,K = batchSize;
+			int[] pos1 = tiles.getPos1(), pos2 = tiles.getPos2();
+			double[] IF = tiles.getIF();
+			double[] s = structure, g = change, cf = factors;
+			Arrays.fill(g, 0);
+			for(int b = 0; b < K; b++){
+				cf[b] = chainFactors[b] * 2;
+			}
+			for(int k = beg; k <= end; k ++){
+				
+				if (IF[k] <= 0) continue;
+				
+				pi = pos1[k] * K * 3;
+				pj = pos2[k] * K * 3;
+				d = k * K;
+				for(int b = 0; b < K; b++, pi += 3, pj += 3){
+					tmp = cf[b] * ratios[d + b];
+					
+					dx = tmp * (s[pi] - s[pj]);
+					dy = tmp * (s[pi + 1] - s[pj + 1]);
+					dz = tmp * (s[pi + 2] - s[pj + 2]);
+					
+					g[pi] += dx;
+					g[pi + 1] += dy;
+					g[pi + 2] += dz;
+					
+					g[pj] -= dx;
+					g[pj + 1] -= dy;
+					g[pj + 2] -= dz;
+				}
+			}
+		}
+		
+		/**
+		 * Add the buffers of the other calculators to the gradient, in the range of this calculator.
+		 * Buffers are added in the order of the calculators, as a single thread would
+		 */
+		private void sumBuffers(){
+			double[] der = gradient;
+			for(int k = 1; k < gradCalculators.length; k++){
+				double[] change = gradCalculators[k].change;
+				for(int i = sumBeg; i < sumEnd; i++){
+					der[i] += change[i];
+				}
+			}
+		}
+		
+		public double[] getResidual() {
+			return residual;
+		}
+		
+	}
+
+}
@@ -5,35 +5,52 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
+import optimization.AdamAscent;
+import optimization.ConvergenceCriteria;
 import optimization.GradientAscent;
+import optimization.LBFGS;
+import optimization.NesterovAscent;
 import optimization.OptimizedObject;
+import optimization.Optimizer;
+import optimization.RMSPropAscent;
+import optimization.StopCriterion;
+import optimization.StopReason;
 
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
 
 import utility.Helper;
 import valueObject.Constants;
-import valueObject.Constraint;
+import valueObject.ConstraintSet;
+import valueObject.ContactData;
 import evaluation.CalRMSD;
 
-public class StructureGenerator3DMax implements OptimizedObject{
+public class StructureGenerator3DMax {
 
 	private Helper helper = Helper.getHelperInstance();
 	
 	//number of structures will be generated
 	private int NUM;
 	
-	//list of constraints, each contains position i,j, IF, dist
-	private List<Constraint> lstCons;
+	//normalized and sorted input contacts with adjacent contacts added, read once and shared by all convert factors
+	private ContactData contacts;
 	
-	//list to map 0..n to pos1...posn
-	private List<Integer> lstPos;
+	//normalized IF of the input contacts in input order, used to scale distances for a convert factor
+	private double[] inputIF;
+	
+	//genomic positions, to map 0..n to pos1...posn
+	private int[] positions;
 	
 	//factor to convert IF to physical distance
 	private double convertFactor = -1.0;
@@ -44,9 +61,6 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	//output folder
 	private String OUTPUT_FOLDER = "";
 	
-	//structure
-	private double[] str;
-	
 	//number of points
 	private int n;
 	
@@ -59,8 +73,58 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	//maximum distance that will be scaled down to	
 	//private double maxScale = Constants.SCALE_DISTANCE; 
 	
-	//list contains indices of sub constraints for parallel threads
-	private ArrayList<Integer> lstSubDataSetId = new ArrayList<Integer>();
+	//number of convert factor candidates optimized at the same time during the search
+	private int SEARCH_PARALLELISM = 1;
+	
+	//search for the convert factor with a coarse grid refined around the best factor, instead of the full grid
+	private boolean ADAPTIVE_SEARCH = false;
+	
+	//number of models generated at the same time
+	private int ENSEMBLE_PARALLELISM = 1;
+	
+	//number of models optimized together by one pass over the constraints
+	private int BATCH_SIZE = 1;
+	
+	//optimizer of the structures, one of Constants.OPTIMIZERS
+	private String OPTIMIZER = Constants.OPTIMIZERS[0];
+	
+	//scale the updates of gradient ascent by a line search
+	private boolean LINE_SEARCH = false;
+	
+	//convergence criteria of the optimizations, in addition to the gradient, 0 to not use a criterion
+	private int CONVERGENCE_WINDOW = Constants.CONVERGENCE_WINDOW;
+	private double CONVERGENCE_TOLERANCE = Constants.CONVERGENCE_TOLERANCE;
+	private double MIN_STEP = 0;
+	//seconds
+	private double TIME_LIMIT = 0;
+	
+	//numbers of input points per point of the coarse resolution levels, from the coarsest one, 
+	//null to start the optimizations from random structures
+	private int[] RESOLUTION_LEVELS = null;
+	
+	//next coarser resolution level, its structures initialize the structures of this level, null at the coarsest level
+	private StructureGenerator3DMax coarseLevel;
+	
+	//index of every point along the input points (the mean index of its input points), to interpolate between levels
+	private double[] centers;
+	
+	//point of every input point, for a coarse level
+	private int[] inputToPoint;
+	
+	//constraints of every convert factor, for a coarse level
+	private Map<Double, ConstraintSet> mapConstraints = new HashMap<Double, ConstraintSet>();
+	
+	//timestamp of the last model, to name output files
+	private long lastTimestamp = 0;
+	
+	//stop the optimizations of unpromising convert factor candidates early
+	private boolean EARLY_STOPPING = false;
+	
+	//successive halving shared by the candidates of the current convert factor search, null outside of a search
+	private SuccessiveHalving halving;
+	
+	//the search for the convert factor writes the shared log from several threads
+	private final Object logLock = new Object();
 
 	//file prefix to name output file structure
 	private String FILE_PREFIX;
@@ -79,158 +143,302 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	private double WIDE_CURVE = Constants.WIDE_CURVE;
 			
 	//interval to ignore when calculating Spearman correlation, a[i,i + interval] = 0
-	private int interval = 5;
+	private int interval = 0;
 	
 	private double contactThres;
+	
+	//keep a binary copy of the parsed input next to the input file and load it in later runs
+	private boolean CACHE_INPUT = true;
 	private int[] chrLens = null;
-	private HashMap<Integer,Integer> idToChr = new HashMap<Integer,Integer>(); //to map index to chromosome
+	private int[] idToChr; //to map index to chromosome
 	
 	public StructureGenerator3DMax(String parameterFile){
 		this.parameterFile = parameterFile;
 	}
 	
 	/**
-	 * read input contacts
+	 * read input contacts, normalize their IFs and add adjacent contacts
+	 * 
+	 * nothing here depends on the convert factor, so the input is read only once, distances are computed by convertToDistances()
 	 * @throws Exception
 	 */
 	private void readInput() throws Exception{
 		
-		
-		lstPos = new ArrayList<Integer>();
-		
 		// Detect if Input is in Tuple format
 		int format = helper.inputdetector(INPUT_FILE);
 		if (format ==1) {
-			//change input file to new path
-			INPUT_FILE = helper.readMatrixtoList(INPUT_FILE);
+			//the matrix is read straight into contacts, row and column indices are the positions
+			contacts = helper.readContactMatrixAsContacts(INPUT_FILE, CACHE_INPUT, contactThres);
+		}else{
+			contacts = helper.readContactList(INPUT_FILE, CACHE_INPUT, contactThres);
 		}
-		
-		lstCons = helper.readContactList(INPUT_FILE, lstPos,contactThres);
 		//lstCons = helper.readContactMatrixAsList(INPUT_FILE);
 		//n = helper.determineNbrOfPoints(INPUT_FILE);
 		
-		n = lstPos.size();		
+		//positions are already mapped to 0..n-1 in increasing order, so gaps are removed
+		positions = contacts.getPositions();
+		n = positions.length;		
 		System.out.println("Number of points: " + n);
-		//map position to absolute id
-		Map<Integer,Integer> mapPosToID = new HashMap<Integer,Integer>();
-		for(int i = 0; i < lstPos.size(); i++){
-			mapPosToID.put(lstPos.get(i), i);
+		
+		File outputFolder = new File(OUTPUT_FOLDER);
+		if (!outputFolder.exists()) {
+			outputFolder.mkdir();
 		}
-		//
 		
 		//output the mapping of coordinate to id in the output structure
 		PrintWriter pw = new PrintWriter(OUTPUT_FOLDER + "/" + FILE_PREFIX + "_coordinate_mapping.txt");
-		for(int i = 0; i < lstPos.size(); i++){
-			pw.println(lstPos.get(i) + "\t" + i);			
+		for(int i = 0; i < positions.length; i++){
+			pw.println(positions[i] + "\t" + i);			
 		}		
 		pw.close();
 		
-		//calculate chromosome number for each index
+		//calculate chromosome number for each index, if chrLens is null, the whole is one chromosome
+		idToChr = new int[n];
 		if (chrLens != null){
 			
-			for(int i = 1; i <chrLens.length; i++){
-				chrLens[i] = chrLens[i - 1] + chrLens[i];
-			}
-			for(int j = 0; j < chrLens[0]; j++){
-				idToChr.put(j, 0);
-			}
-			for(int i = 1; i < chrLens.length; i++){
-				for(int j = chrLens[i-1]; j < chrLens[i]; j++){
-					idToChr.put(j, i);
+			int chrEnd = 0;
+			for(int i = 0; i < chrLens.length; i++){
+				int chrStart = chrEnd;
+				chrEnd = Math.min(n, chrEnd + chrLens[i]);
+				for(int j = chrStart; j < chrEnd; j++){
+					idToChr[j] = i;
 				}
 			}
 			
-		}else{
-			//if idToChr is null, make the whole as one chromosome
-			for(int i = 0; i < n; i++){				
-				idToChr.put(i, 0);				
+		}
+		
+		ContactData input = contacts;
+		prepareContacts();
+		
+		if (RESOLUTION_LEVELS != null){
+			centers = new double[n];
+			for(int i = 0; i < n; i++){
+				centers[i] = i;
 			}
-		}				
-
+			
+			//every level is binned from the input, from the finest one
+			StructureGenerator3DMax level = this;
+			for(int k = RESOLUTION_LEVELS.length - 1; k >= 0; k--){
+				level.coarseLevel = new StructureGenerator3DMax(parameterFile);
+				level = level.coarseLevel;
+				level.readParameters(parameterFile);
+				level.RESOLUTION_LEVELS = null;
+				level.readInput(input, idToChr, RESOLUTION_LEVELS[k]);
+			}
+		}
+	}
+	
+	/**
+	 * Bin the input contacts to a coarse resolution level, 
+	 * a point of the level has binSize consecutive input points of the same chromosome, or less at the end of a chromosome
+	 * @param input: contacts of the input points, their IFs are normalized
+	 * @param inputToChr: chromosome of every input point
+	 * @param binSize: number of input points per point
+	 * @throws Exception
+	 */
+	private void readInput(ContactData input, int[] inputToChr, int binSize) throws Exception{
+		
+		int nInput = inputToChr.length;
+		inputToPoint = new int[nInput];
+		n = 0;
+		int start = 0;
+		for(int i = 0; i < nInput; i++){
+			if (i == 0 || inputToChr[i] != inputToChr[i - 1] || i - start == binSize){
+				start = i;
+				n++;
+			}
+			inputToPoint[i] = n - 1;
+		}
+		
+		positions = new int[n];
+		idToChr = new int[n];
+		centers = new double[n];
+		int[] count = new int[n];
+		int p;
+		for(int i = nInput - 1; i >= 0; i--){
+			p = inputToPoint[i];
+			//the position of a point is the position of its first input point
+			positions[p] = input.getPositions()[i];
+			idToChr[p] = inputToChr[i];
+			centers[p] += i;
+			count[p]++;
+		}
+		for(int i = 0; i < n; i++){
+			centers[i] /= count[i];
+		}
+		
+		System.out.println("Resolution level of " + binSize + " input points per point, number of points: " + n);
+		
+		contacts = input.bin(inputToPoint, positions);
+		prepareContacts();
+	}
+	
+	/**
+	 * normalize IFs of the contacts and add adjacent contacts
+	 */
+	private void prepareContacts(){
+		
+		int m = contacts.size();
+		int[] pos1 = contacts.getPos1(), pos2 = contacts.getPos2();
+		double[] IF = contacts.getIF();
 		
-		//correct lstCons to remove gap, if there is no gap, this doesn't change anything
 		avgIF = 0.0;
-		for(Constraint con: lstCons){
-//			if (Math.abs(con.getPos1() - con.getPos2()) == 1 && con.getIF() < 20.0){
-//				System.out.println(con.getPos1() + "\t" + con.getPos2());
-//			}
-			con.setPos1(mapPosToID.get(con.getPos1()));
-			con.setPos2(mapPosToID.get(con.getPos2()));
-			avgIF += con.getIF();
+		for(int k = 0; k < m; k++){
+			avgIF += IF[k];
 		}
-		avgIF /= lstCons.size();
+		avgIF /= m;
 		
 		maxIF = 0.0;
-		//scale average distance to AVG_DIST
-		double avgDist = 0.0;
+		totalIF = 0.0;
 		double avgAdjIF = 0.0;
 		int avgAdjCount = 0;
-		for(Constraint con : lstCons){						
+		for(int k = 0; k < m; k++){						
 			
-			con.setIF(con.getIF()/avgIF); //normalize IF by avgIF
-			avgDist += (1.0 / Math.pow(con.getIF(),convertFactor));
+			IF[k] = IF[k]/avgIF; //normalize IF by avgIF
 			
-			totalIF += con.getIF();
-			if (con.getIF() > maxIF){
-				maxIF = con.getIF();
+			totalIF += IF[k];
+			if (IF[k] > maxIF){
+				maxIF = IF[k];
 			}
 			
-			if (Math.abs(con.getPos1() - con.getPos2()) == 1 && idToChr.get(con.getPos1()) == idToChr.get(con.getPos2())) {
+			if (Math.abs(pos1[k] - pos2[k]) == 1 && idToChr[pos1[k]] == idToChr[pos2[k]]) {
 				avgAdjCount++;
-				avgAdjIF += con.getIF();
+				avgAdjIF += IF[k];
 			}
 		}
-		avgDist /= lstCons.size();
 		avgAdjIF /= avgAdjCount;
 		
 		
 		// December 19 2017 : minimum used to avoid too large maximum
 		 maxIF = Math.min(avgAdjIF, maxIF);
 		
-		Collections.sort(lstCons);
-		addAdjacentContacts(avgAdjIF);
+		//sorting and adding contacts build new columns, IF keeps the input contacts for distance scaling
+		inputIF = IF.length == m ? IF : Arrays.copyOf(IF, m);
+		contacts.sort();
+		contacts = addAdjacentContacts(contacts, avgAdjIF);
 		//addNonContact();
 		
-		System.out.println("Number of constraints: " + lstCons.size());
+		System.out.println("Number of constraints: " + contacts.size());
+	}
+	
+	/**
+	 * 
+	 * @param IF: IFs of the input contacts
+	 * @param convertFactor
+	 * @return average of 1 / IF^convertFactor over all IFs
+	 */
+	static double averageDistance(double[] IF, double convertFactor){
+		double avgDist = 0.0;
+		for(int k = 0; k < IF.length; k++){
+			avgDist += (1.0 / Math.pow(IF[k],convertFactor));
+		}
+		return avgDist / IF.length;
+	}
+	
+	/**
+	 * Convert IFs of the contacts to distances, the average distance of input contacts is scaled to AVG_DIST
+	 * @param convertFactor
+	 * @return constraints for the convert factor
+	 */
+	private ConstraintSet convertToDistances(double convertFactor){
+		
+		double avgDist = averageDistance(inputIF, convertFactor);
+		
+		int m = contacts.size();
+		double[] IF = contacts.getIF();
 		double max = 0;
-		for(Constraint con : lstCons){			
-			con.setDist(AVG_DIST / (Math.pow(con.getIF(),convertFactor) * avgDist ));
-			if (AVG_DIST / (Math.pow(con.getIF(),convertFactor) * avgDist ) > max){
-				max = AVG_DIST / (Math.pow(con.getIF(),convertFactor) * avgDist) ;
+		double[] dist = new double[m];
+		for(int k = 0; k < m; k++){			
+			dist[k] = AVG_DIST / (Math.pow(IF[k],convertFactor) * avgDist );
+			if (dist[k] > max){
+				max = dist[k];
 			}
 		}
 		
 		System.out.println("Max distance is: " + max);
 		
+		//all convert factors share the position and IF columns
+		return new ConstraintSet(contacts.getPos1(), contacts.getPos2(), IF, dist);
+		
 	}
 	
 	
-	//add adjacent contacts if not exist
+	/**
+	 * add adjacent contacts if not exist, an existing adjacent contact is replaced if its IF is smaller than IF
+	 * 
+	 * adjacent contacts are merged into the sorted contacts in one pass, so the result is sorted
+	 * @param contacts: sorted contacts
+	 * @param IF: frequency of the added contacts
+	 * @return sorted contacts
+	 */
+	private ContactData addAdjacentContacts(ContactData contacts, double IF){
+		//count first, the columns of the result have the exact size
+		int size = mergeAdjacentContacts(contacts, IF, null, null, null);
+		
+		int[] pos1 = new int[size], pos2 = new int[size];
+		double[] f = new double[size];
+		mergeAdjacentContacts(contacts, IF, pos1, pos2, f);
+		
+		return new ContactData(contacts.getPositions(), pos1, pos2, f, size);
+	}
 	
-	private void addAdjacentContacts(double IF){
-		int id;
-		ArrayList<Constraint> ctList = new ArrayList<Constraint>();
-		Constraint ct;
-		for(int i = 0; i < n - 1; i++){
-			if (idToChr.get(i) == idToChr.get(i+ 1) ){	
-				
-				ct = new Constraint(i,i + 1,IF);				
-				id = Collections.binarySearch(lstCons, ct);
-				if (id < 0){
-					ctList.add(ct);
-				}else{					
-					if (lstCons.get(id).getIF() < IF){
-						lstCons.remove(id);
-						ctList.add(ct);
-					}
-					
-					
+	/**
+	 * Merge the sorted contacts with the adjacent contacts (i, i + 1) of every chromosome.
+	 * If contacts (i, i + 1) already exist, the first of them is replaced when its IF is smaller than IF, the others are kept
+	 * @param contacts: sorted contacts
+	 * @param IF: frequency of the added contacts
+	 * @param pos1, pos2, f: receive the merged contacts, null to only count them
+	 * @return number of merged contacts
+	 */
+	private int mergeAdjacentContacts(ContactData contacts, double IF, int[] pos1, int[] pos2, double[] f){
+		int m = contacts.size();
+		int[] oldPos1 = contacts.getPos1(), oldPos2 = contacts.getPos2();
+		double[] ifs = contacts.getIF();
+		int k = 0, count = 0;
+		for(int i = 0; i < n; i++){
+			
+			//contacts before (i, i + 1)
+			while(k < m && (oldPos1[k] < i || (oldPos1[k] == i && oldPos2[k] <= i))){
+				if (pos1 != null){
+					pos1[count] = oldPos1[k];
+					pos2[count] = oldPos2[k];
+					f[count] = ifs[k];
 				}
+				count++;
+				k++;
+			}
+			
+			if (i == n - 1 || idToChr[i] != idToChr[i + 1]){
+				continue;
 			}
 			
+			if (k < m && oldPos1[k] == i && oldPos2[k] == i + 1){
+				if (ifs[k] >= IF){
+					//kept, it is copied with the contacts before (i + 1, i + 2)
+					continue;
+				}
+				k++;
+			}
+			
+			if (pos1 != null){
+				pos1[count] = i;
+				pos2[count] = i + 1;
+				f[count] = IF;
+			}
+			count++;
 		}
 		
-		lstCons.addAll(ctList);
+		//contacts after the last adjacent contact
+		for(; k < m; k++){
+			if (pos1 != null){
+				pos1[count] = oldPos1[k];
+				pos2[count] = oldPos2[k];
+				f[count] = ifs[k];
+			}
+			count++;
+		}
+		
+		return count;
 	}
 
 	private void readParameters(String paraFile)throws Exception{
@@ -293,6 +501,55 @@ public class StructureGenerator3DMax implements OptimizedObject{
 					}
 				}else if (st[0].equalsIgnoreCase(Constants.THRESHOLD_KEY)){
 					contactThres = Double.parseDouble(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.CACHE_INPUT_KEY)){
+					CACHE_INPUT = Boolean.parseBoolean(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.SEARCH_PARALLELISM_KEY)){
+					SEARCH_PARALLELISM = Integer.parseInt(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.FACTOR_SEARCH_KEY)){
+					ADAPTIVE_SEARCH = "adaptive".equalsIgnoreCase(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.EARLY_STOPPING_KEY)){
+					EARLY_STOPPING = Boolean.parseBoolean(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.ENSEMBLE_PARALLELISM_KEY)){
+					ENSEMBLE_PARALLELISM = Integer.parseInt(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.BATCH_SIZE_KEY)){
+					BATCH_SIZE = Integer.parseInt(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.OPTIMIZER_KEY)){
+					OPTIMIZER = st[1].toLowerCase();
+					if (!Arrays.asList(Constants.OPTIMIZERS).contains(OPTIMIZER)){
+						throw new Exception("Unknown optimizer: " + st[1] + ", it must be one of " + Arrays.toString(Constants.OPTIMIZERS));
+					}
+				
+				}else if (st[0].equalsIgnoreCase(Constants.LINE_SEARCH_KEY)){
+					LINE_SEARCH = Boolean.parseBoolean(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.CONVERGENCE_WINDOW_KEY)){
+					CONVERGENCE_WINDOW = Integer.parseInt(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.CONVERGENCE_TOLERANCE_KEY)){
+					CONVERGENCE_TOLERANCE = Double.parseDouble(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.MIN_STEP_KEY)){
+					MIN_STEP = Double.parseDouble(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.TIME_LIMIT_KEY)){
+					TIME_LIMIT = Double.parseDouble(st[1]);
+				
+				}else if (st[0].equalsIgnoreCase(Constants.RESOLUTION_LEVELS_KEY)){
+					String[] levels = st[1].trim().split(",");
+					RESOLUTION_LEVELS = new int[levels.length];
+					for(int i = 0; i < levels.length; i++){
+						RESOLUTION_LEVELS[i] = Integer.parseInt(levels[i]);
+						if (RESOLUTION_LEVELS[i] < 2 || (i > 0 && RESOLUTION_LEVELS[i] >= RESOLUTION_LEVELS[i - 1])){
+							throw new Exception("Resolution levels must be decreasing numbers of input points larger than 1: " + st[1]);
+						}
+					}
 				}
 			}
 			
@@ -314,11 +571,9 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	}
 	
 	/**
-	 * Initialize variables before running optimization
+	 * Number of threads that can be used by the optimization
 	 */
-	private void initialize(){
-				
-		str = new double[n * 3];
+	private int getNumberOfThreads(){
 		
 		//get the number of processor available
 		int numOfcores = Runtime.getRuntime().availableProcessors();
@@ -335,31 +590,123 @@ public class StructureGenerator3DMax implements OptimizedObject{
 			numOfcores = 1;
 		}
 		
-		//August,18, test to see if adjacent distance is better
-		numOfcores = 1;
+		return numOfcores;
+	}
+	
+	/**
+	 * Initialize the genome structure from the optimized structure of the coarser resolution level, 
+	 * or randomly at the coarsest level. The interpolated points are moved randomly as much as in a random structure, 
+	 * so that no two points are at the same place
+	 * @param str: receives the structure
+	 * @param constraints: constraints of the convert factor
+	 * @param factor: convert factor
+	 * @param nbrThreads: maximum number of threads for the optimization of the coarser levels
+	 * @throws Exception
+	 */
+	private void initializeStructure(double[] str, ConstraintSet constraints, double factor, int nbrThreads) throws Exception{
 		
-		System.out.println("Number of processors:" + numOfcores);
-		//divide the set of points into equal subsets, each will be processed by one processor (thread)
-		lstSubDataSetId.clear();
-		helper.divideDataSet(lstCons.size(), numOfcores, lstSubDataSetId);
+		if (coarseLevel == null){
+			initializeStructure(str);
+			return;
+		}
 		
+		double[] coarseStr = coarseLevel.generateLevelStructure(factor, nbrThreads);
+		coarseLevel.interpolate(coarseStr, centers, str);
 		
-		File outputFolder = new File(OUTPUT_FOLDER);
-		if (!outputFolder.exists()) {
-			outputFolder.mkdir();
+		//the coarse level has its own distance scale, the least squares scale for the wish distances of this level is used
+		int[] pos1 = constraints.getPos1(), pos2 = constraints.getPos2();
+		double[] wish = constraints.getDist();
+		double dist, sumWish = 0, sumDist = 0;
+		int i, j;
+		for(int k = 0; k < constraints.size(); k++){
+			i = pos1[k];
+			j = pos2[k];
+			dist = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
+			sumWish += wish[k] * dist;
+			sumDist += dist * dist;
+		}
+		double scale = sumDist > 0 ? sumWish / sumDist : 1;
+		for(int k = 0; k < n * 3; k++){
+			str[k] = str[k] * scale + Math.random() * Constants.INITIAL_STRUCTURE_SIZE;
+		}
+	}
+	
+	/**
+	 * Generate a structure of a coarse resolution level, initialized from the coarser levels
+	 * @param factor: convert factor
+	 * @param nbrThreads: maximum number of threads for the optimization
+	 * @return optimized structure
+	 * @throws Exception
+	 */
+	private double[] generateLevelStructure(double factor, int nbrThreads) throws Exception{
+		
+		ConstraintSet constraints;
+		//the constraints of a convert factor are shared by all models, they can be generated at the same time
+		synchronized(mapConstraints){
+			constraints = mapConstraints.get(factor);
+			if (constraints == null){
+				constraints = convertToDistances(factor);
+				mapConstraints.put(factor, constraints);
+			}
 		}
 		
-
+		double[] str = new double[n * 3];
+		initializeStructure(str, constraints, factor, nbrThreads);
+		
+		ConstraintObjective objective = new ConstraintObjective(constraints, n, nbrThreads);
+		try{
+			String stop = optimize(objective, str, null);
+			if (VERBOSE){
+				System.out.println("Resolution level of " + n + " points: " + stop);
+			}
+		}finally{
+			objective.shutdown();
+		}
+		
+		return str;
 	}
 	
-
+	/**
+	 * Interpolate a structure of this level at the points of a finer level, linearly between the two points 
+	 * of the same chromosome around each point. A point beyond the first or last point of its chromosome 
+	 * is extrapolated from the two end points
+	 * @param coarseStr: structure of this level
+	 * @param fineCenters: index of every point of the finer level along the input points
+	 * @param fineStr: receives the structure of the finer level
+	 */
+	private void interpolate(double[] coarseStr, double[] fineCenters, double[] fineStr){
+		
+		int p, q;
+		double t;
+		for(int i = 0; i < fineCenters.length; i++){
+			//point of this level containing the center, and its neighbor on the other side of the center, 
+			//or on the same side at the end of a chromosome
+			p = inputToPoint[(int) fineCenters[i]];
+			q = fineCenters[i] >= centers[p] ? p + 1 : p - 1;
+			if (q < 0 || q >= n || idToChr[q] != idToChr[p]){
+				q = 2 * p - q;
+			}
+			
+			t = 0;
+			if (q >= 0 && q < n && idToChr[q] == idToChr[p]){
+				t = (fineCenters[i] - centers[p]) / (centers[q] - centers[p]);
+			}else{
+				//only one point in the chromosome
+				q = p;
+			}
+			
+			for(int c = 0; c < 3; c++){
+				fineStr[i * 3 + c] = coarseStr[p * 3 + c] + t * (coarseStr[q * 3 + c] - coarseStr[p * 3 + c]);
+			}
+		}
+	}
 	
 	/**
 	 * Initialize the genome structure, adjacent points are initialized to be closer together than the others
 	 */
-	private void initializeStructure() throws Exception{
+	private void initializeStructure(double[] str) throws Exception{
 		
-		double chrX=0,chrY=0,chrZ=0,size = 0.1;
+		double chrX=0,chrY=0,chrZ=0,size = Constants.INITIAL_STRUCTURE_SIZE;
 		
 		for(int i = 0; i < n; i++){
 			
@@ -386,15 +733,7 @@ public class StructureGenerator3DMax implements OptimizedObject{
 		
 		if (convertFactor == -1){
 		
-			double cor, minCor = 1.0;
-			double bestConvertFactor = -1;
-			for(convertFactor = 0.1; convertFactor <= 2.0; convertFactor += 0.1){
-				cor = run(convertFactor + "");
-				if (minCor > cor){
-					minCor = cor;
-					bestConvertFactor = convertFactor;
-				}
-			}
+			double bestConvertFactor = searchConvertFactor();
 			
 			PrintWriter pw = new PrintWriter(OUTPUT_FOLDER + "/" + "best_alpha_log.txt");
 			pw.printf("\n\nBest convert factor: %.2f, pick models generated using this convert factor as your final models \n", bestConvertFactor);
@@ -412,18 +751,177 @@ public class StructureGenerator3DMax implements OptimizedObject{
 		}
 	}
 	
+	/**
+	 * Search for the best convert factor in 0.1 .. 2.0, SEARCH_PARALLELISM candidates are optimized at the same time
+	 * and share the available threads
+	 * 
+	 * The grid search tries every factor with step 0.1. The adaptive search tries a coarse grid first, 
+	 * then refines around the best factor with smaller steps, a refinement candidate is rejected 
+	 * as soon as its first models are clearly worse than the best factor.
+	 * With EARLY_STOPPING, optimizations of candidates are compared by successive halving and unpromising candidates are stopped
+	 * @return the convert factor with the smallest average Spearman correlation of IFs vs. reconstructed distances
+	 * @throws Exception
+	 */
+	private double searchConvertFactor() throws Exception{
+		
+		if (contacts == null){
+			readInput();
+		}
+		
+		if (EARLY_STOPPING){
+			halving = new SuccessiveHalving(contacts);
+		}
+		
+		//factors are counted in hundredths, so that the steps don't drift
+		TreeMap<Integer, Double> mapCor = new TreeMap<Integer, Double>();
+		List<Integer> lstFactor = new ArrayList<Integer>();
+		
+		if (ADAPTIVE_SEARCH){
+			int[] steps = Constants.ADAPTIVE_FACTOR_STEPS;
+			//coarse pass, the grid ends at the largest factor
+			for(int factor = Constants.MAX_CONVERT_FACTOR; factor >= Constants.MIN_CONVERT_FACTOR; factor -= steps[0]){
+				lstFactor.add(0, factor);
+			}
+			evaluateFactors(lstFactor, Double.POSITIVE_INFINITY, mapCor);
+			
+			for(int r = 1; r < steps.length; r++){
+				Integer best = getBestFactor(mapCor);
+				if (best == null){
+					break;
+				}
+				//factors between the best factor and its neighbors of the previous pass
+				lstFactor.clear();
+				for(int factor = best - steps[r - 1] + steps[r]; factor < best + steps[r - 1]; factor += steps[r]){
+					if (factor >= Constants.MIN_CONVERT_FACTOR && factor <= Constants.MAX_CONVERT_FACTOR && !mapCor.containsKey(factor)){
+						lstFactor.add(factor);
+					}
+				}
+				evaluateFactors(lstFactor, mapCor.get(best) + Constants.FACTOR_REJECT_MARGIN, mapCor);
+			}
+			
+		}else{
+			for(int factor = Constants.MIN_CONVERT_FACTOR; factor <= Constants.MAX_CONVERT_FACTOR; factor += Constants.CONVERT_FACTOR_STEP){
+				lstFactor.add(factor);
+			}
+			evaluateFactors(lstFactor, Double.POSITIVE_INFINITY, mapCor);
+		}
+		
+		halving = null;
+		System.out.println("Number of convert factors tried: " + mapCor.size());
+		
+		Integer best = getBestFactor(mapCor);
+		return best == null ? -1 : best / 100.0;
+	}
+	
+	/**
+	 * Optimize candidates for convert factors, SEARCH_PARALLELISM at a time
+	 * @param lstFactor: convert factors in hundredths
+	 * @param rejectCor: a candidate stops generating models when its average correlation is above this value
+	 * @param mapCor: receives the average correlation of every factor
+	 * @throws Exception
+	 */
+	private void evaluateFactors(List<Integer> lstFactor, final double rejectCor, Map<Integer, Double> mapCor) throws Exception{
+		
+		int parallelism = Math.max(1, Math.min(SEARCH_PARALLELISM, lstFactor.size()));
+		final int nbrThreads = Math.max(1, getNumberOfThreads() / parallelism);
+		
+		if (parallelism == 1){
+			for(int factor : lstFactor){
+				mapCor.put(factor, run(factor / 100.0, nbrThreads, rejectCor, factor / 100.0 + ""));
+			}
+			return;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try{
+			List<Future<Double>> lstFuture = new ArrayList<Future<Double>>();
+			for(int factor : lstFactor){
+				final double convertFactor = factor / 100.0;
+				lstFuture.add(executor.submit(new Callable<Double>(){
+					@Override
+					public Double call() throws Exception {
+						return run(convertFactor, nbrThreads, rejectCor, convertFactor + "");
+					}
+				}));
+			}
+			for(int i = 0; i < lstFuture.size(); i++){
+				mapCor.put(lstFactor.get(i), lstFuture.get(i).get());
+			}
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param mapCor: average correlation of convert factors
+	 * @return the first factor with the smallest correlation, candidates are compared in factor order so the choice 
+	 * doesn't depend on the parallelism, null if no correlation is below 1
+	 */
+	private Integer getBestFactor(TreeMap<Integer, Double> mapCor){
+		double minCor = 1.0;
+		Integer bestConvertFactor = null;
+		for(Map.Entry<Integer, Double> entry : mapCor.entrySet()){
+			if (minCor > entry.getValue()){
+				minCor = entry.getValue();
+				bestConvertFactor = entry.getKey();
+			}
+		}
+		return bestConvertFactor;
+	}
+	
 	public double run(String... cFactor) throws Exception{
-		String fileName;
 		
-		readInput();
-		//December 19, 2017 : for parallel processing (Not Used) 
-		initialize();
+		//the input is read by the first run only
+		if (contacts == null){
+			readInput();
+		}
+		
+		return run(convertFactor, getNumberOfThreads(), Double.POSITIVE_INFINITY, cFactor);
+	}
+	
+	/**
+	 * Generate models for a convert factor, the input must be read
+	 * @param factor: convert factor
+	 * @param nbrThreads: maximum number of threads for the optimization
+	 * @param rejectCor: stop generating models when the average correlation is above this value
+	 * @param cFactor: if given, the run is a candidate in the search for the convert factor
+	 * @return average Spearman correlation of IFs vs. reconstructed distances
+	 * @throws Exception
+	 */
+	private double run(double factor, int nbrThreads, double rejectCor, String... cFactor) throws Exception{
 		
-		String logFileName = "";		
-		PrintWriter logPW = null;
-		double rmsd,cor,corDist,pcorDist;
-		double avgRMSD = 0,avgCor = 0, avgCorDist = 0, avgPearsonCorDist = 0;
-		boolean isOutput = false;
+		ConstraintSet constraints = convertToDistances(factor);
+		
+		//models of a search candidate are generated one after another, so that the candidate can be rejected after its first models
+		if ((ENSEMBLE_PARALLELISM > 1 || BATCH_SIZE > 1) && NUM > 1 && (cFactor == null || cFactor.length == 0)){
+			return generateEnsemble(constraints, factor, nbrThreads);
+		}
+		
+		ConstraintObjective objective = new ConstraintObjective(constraints, n, nbrThreads);
+		System.out.println("Number of processors:" + objective.getNumberOfThreads());
+		
+		try{
+			return generateModels(objective, factor, rejectCor, cFactor);
+		}finally{
+			//release the worker threads of this run
+			objective.shutdown();
+		}
+	}
+	
+	/**
+	 * Generate the models of one run, one after another
+	 * @param objective: objective function of the convert factor
+	 * @param factor: convert factor
+	 * @param rejectCor: stop generating models when the average correlation is above this value
+	 * @param cFactor: if given, the run is a candidate in the search for the convert factor
+	 * @return average Spearman correlation of IFs vs. reconstructed distances
+	 * @throws Exception
+	 */
+	private double generateModels(ConstraintObjective objective, double factor, double rejectCor, String... cFactor) throws Exception{
+		
+		//every run has its own structure, so that candidates can run at the same time
+		double[] str = new double[n * 3];
 		
 		int run_nbr = NUM;
 		//if search for best alpha, just run 3 times for each alpha candidate
@@ -431,319 +929,355 @@ public class StructureGenerator3DMax implements OptimizedObject{
 			run_nbr = 3;
 		}
 		
+		double[][] metrics = new double[run_nbr][];
+		double avgCor = 0;
 		for(int i = 0; i < run_nbr; i++) {		
-			initializeStructure();
 			
-			GradientAscent gradientAscent = new GradientAscent(this, str, VERBOSE);
-			if (LEARNING_RATE != 0){
-				gradientAscent.setInitialLearingRate(LEARNING_RATE);
+			//a candidate is judged on its first model, the candidates that go on finish all their models
+			SuccessiveHalving.Trial trial = null;
+			if (halving != null && i == 0 && cFactor != null && cFactor.length > 0){
+				trial = halving.newTrial();
 			}
 			
-			gradientAscent.performGradientAscent(MAX_ITER);
-			
-			String currentTimeMillis = System.currentTimeMillis() + "";
+			metrics[i] = generateModel(objective, str, factor, trial, cFactor);
 			
-			if (cFactor != null && cFactor.length > 0){
-				fileName = FILE_PREFIX + "_" + currentTimeMillis + "_" + cFactor[0] + ".pdb" ;
-				isOutput = false;
-			}else{
-				fileName = FILE_PREFIX + "_" + currentTimeMillis + ".pdb" ;
-				
-				isOutput = true;
+			//a candidate that is stopped early can't be the best one
+			if (metrics[i] == null){
+				System.out.printf("Convert factor %s is stopped early, it can't beat the best candidate\n", factor + "");
+				return Double.NaN;
 			}
-			
-			//print out log			
-			if (isOutput){
-				String header = "3DMax Structure by Oluwatosin Oluwadare et al";
-				
-				helper.writeStructure(OUTPUT_FOLDER + "/" + fileName,str, idToChr, header);
-				
-				logFileName =  FILE_PREFIX + "_log_" + currentTimeMillis + ".txt";
-				logPW = new PrintWriter(OUTPUT_FOLDER + "/" + logFileName);
-				logPW.println("Input file: " + INPUT_FILE);
-				logPW.println("Convert factor: " + convertFactor);
-				logPW.println("Learning rate: " + LEARNING_RATE);
-				if (chrLens != null){
-					logPW.print("Chromosome lengths:");
-					for(int k = 0; k < chrLens.length; k++){
-						logPW.print(chrLens[k] + " ");
-					}
-					logPW.println();
-				}
-	
-				logPW.flush();
-			
+			if (trial != null){
+				trial.finish();
 			}
 			
-			rmsd = CalRMSD.rmse(str, lstCons);
-			interval = 0;
-			cor = CalRMSD.correlationIFvsDist(str, lstCons, interval);
-			corDist = CalRMSD.correlationWishDistvsDist(str, lstCons, interval);
-			pcorDist = CalRMSD.PearsoncorrelationWishDistvsDist(str, lstCons, interval);
-			
-			
-			avgRMSD += rmsd;
-			avgCor += cor;
-			avgCorDist += corDist;
-			avgPearsonCorDist+=pcorDist;
-			
-			if (isOutput){
-				logPW.println("RMSE: " + rmsd);
-				logPW.println("Spearman correlation IFs vs. Reconstructed Dist: " + cor);
-				logPW.println("Spearman correlation WishDist vs. Reconstructed Dist: " + corDist);
-				logPW.println("Pearson correlation WishDist vs. Reconstructed Dist: " + pcorDist);
-				logPW.flush();
-				logPW.close();
-				
-			}
+			avgCor += metrics[i][1];
 			
-//			System.out.println("RMSE: " + rmsd);
-//			System.out.println("Spearman correlation IFs vs. Reconstructed Dist: " + cor);
-//			System.out.println("Spearman correlation WishDist vs. Reconstructed Dist: " + corDist);
-		}
-				
-		avgRMSD /= run_nbr;
-		avgCor /= run_nbr;
-		avgCorDist /= run_nbr;
-		avgPearsonCorDist/=run_nbr;
-		
-		PrintWriter pw = new PrintWriter(OUTPUT_FOLDER + "/" + FILE_PREFIX + "_log.txt");
-		pw.println("Input file: " + INPUT_FILE);
-		pw.println("Convert factor: " + convertFactor);
-		pw.println("Learning rate: " + LEARNING_RATE);
-		if (chrLens != null){
-			pw.print("Chromosome lengths:");
-			for(int k = 0; k < chrLens.length; k++){
-				pw.print(chrLens[k] + " ");
+			//the remaining models can't make a clearly worse candidate the best one
+			if (i < run_nbr - 1 && avgCor / (i + 1) > rejectCor){
+				System.out.printf("Convert factor %s is rejected after %d model(s)\n", factor + "", i + 1);
+				run_nbr = i + 1;
+				break;
 			}
-			pw.println();
 		}
-
-		pw.println("AVG RMSE: " + avgRMSD);
-		pw.println("AVG Spearman correlation IFs vs. Reconstructed Dist: " + avgCor);
-		pw.println("AVG Spearman correlation WishDist vs. Reconstructed Dist: " + avgCorDist);
-		pw.println("AVG Pearson correlation WishDist vs. Reconstructed Dist: " + avgPearsonCorDist);
-		pw.close();
-		
-		System.out.println("AVG RMSE: " + avgRMSD);
-		System.out.println("AVG Spearman correlation IFs vs. Reconstructed Dist: " + avgCor);
-		System.out.println("AVG Spearman correlation WishDist vs. Reconstructed Dist: " + avgCorDist);
-		System.out.println("AVG Pearson correlation WishDist vs. Reconstructed Dist: " + avgPearsonCorDist);
 		
-		return avgCor;
+		return writeAverages(factor, metrics, run_nbr);
 	}
 	
-	
-	
 	/**
-	 * Calculate objective function and gradient
+	 * Generate NUM models in batches of BATCH_SIZE models optimized together, ENSEMBLE_PARALLELISM batches at the same time. 
+	 * Every batch has its own structures and objective function, the constraints are shared. 
+	 * The averages are computed in model order, so they are the same as for models generated one after another
+	 * @param constraints: constraints of the convert factor
+	 * @param factor: convert factor
+	 * @param nbrThreads: maximum number of threads, shared by the batches
+	 * @return average Spearman correlation of IFs vs. reconstructed distances
+	 * @throws Exception
 	 */
-	@Override
-	public double calGradientAndObjective(double[] x, double[] der)
-			throws InterruptedException {
+	private double generateEnsemble(final ConstraintSet constraints, final double factor, int nbrThreads) throws Exception{
 		
-		double cost = 0.0;
+		//the models of a batch would share the steps of the line search or of L-BFGS, so they are only batched with per-variable step rules
+		final boolean isBatchable = !OPTIMIZER.equals("lbfgs") && !LINE_SEARCH;
+		if (BATCH_SIZE > 1 && !isBatchable){
+			System.out.println("BATCH_SIZE is not used with lbfgs or LINE_SEARCH, models are optimized one at a time");
+		}
+		final int batchSize = isBatchable ? Math.max(1, Math.min(BATCH_SIZE, NUM)) : 1;
+		final int nbrBatches = (NUM + batchSize - 1) / batchSize;
+		final int parallelism = Math.max(1, Math.min(ENSEMBLE_PARALLELISM, nbrBatches));
+		final int threadsPerBatch = Math.max(1, nbrThreads / parallelism);
+		System.out.println("Number of models generated at the same time: " + parallelism * batchSize);
 		
-		GradientCaculator[] gradCalculator = new GradientCaculator[lstSubDataSetId.size()];
+		final double[][] metrics = new double[NUM][];
 		
-		gradCalculator[0] = new GradientCaculator(x, 0 , lstSubDataSetId.get(0), der != null);
-		for(int i = 1; i < gradCalculator.length; i++){
-			gradCalculator[i] = new GradientCaculator(x, lstSubDataSetId.get(i - 1) + 1, lstSubDataSetId.get(i), der != null);
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try{
+			List<Future<Void>> lstFuture = new ArrayList<Future<Void>>();
+			for(int w = 0; w < parallelism; w++){
+				final int first = w;
+				lstFuture.add(executor.submit(new Callable<Void>(){
+					@Override
+					public Void call() throws Exception {
+						for(int batch = first; batch < nbrBatches; batch += parallelism){
+							int beg = batch * batchSize;
+							int count = Math.min(batchSize, NUM - beg);
+							double[][] batchMetrics = generateModelBatch(constraints, factor, threadsPerBatch, count);
+							System.arraycopy(batchMetrics, 0, metrics, beg, count);
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> future : lstFuture){
+				future.get();
+			}
+		}finally{
+			executor.shutdownNow();
 		}
 		
-		//start threads
-		for(int i = 0; i < gradCalculator.length; i++){
-			gradCalculator[i].start();
-		}
+		return writeAverages(factor, metrics, NUM);
+	}
+	
+	/**
+	 * Generate models optimized together with one pass over the constraints per iteration, every model stops on its own. 
+	 * Their structures and logs are written as for models generated one after another
+	 * @param constraints: constraints of the convert factor
+	 * @param factor: convert factor
+	 * @param nbrThreads: maximum number of threads for the optimization
+	 * @param count: number of models
+	 * @return metrics of every model, as returned by generateModel
+	 * @throws Exception
+	 */
+	private double[][] generateModelBatch(ConstraintSet constraints, double factor, int nbrThreads, int count) throws Exception{
 		
-		//wait for all threads to finish
-		try {
-			for(int i=0; i< gradCalculator.length; i++){
-				gradCalculator[i].join();
-			}			
-		} catch (InterruptedException e) {			
-			e.printStackTrace();
-			throw e;
+		ConstraintObjective objective = new ConstraintObjective(constraints, n, nbrThreads, count);
+		try{
+			double[] str = new double[n * 3];
+			double[] x = new double[count * n * 3];
+			for(int b = 0; b < count; b++){
+				initializeStructure(str, constraints, factor, nbrThreads);
+				objective.setStructure(str, x, b);
+			}
+			
+			Optimizer optimizer = newOptimizer(objective, x);
+			optimizer.performOptimization(MAX_ITER);
+			
+			double[][] metrics = new double[count][];
+			for(int b = 0; b < count; b++){
+				objective.getStructure(x, b, str);
+				metrics[b] = evaluateModel(constraints, str, factor, describeStop(optimizer.getStopReason(b), optimizer.getNumberOfIterations(b)));
+			}
+			return metrics;
+			
+		}finally{
+			objective.shutdown();
 		}
-
-		//aggregate the cost
-		for(int i = 0; i < gradCalculator.length; i++){
-			cost += gradCalculator[i].getCost();
-		}
-	
-		if (der != null){
-			//aggregate the gradient
-			for(int i = 0; i < der.length; i++){
-				der[i] = 0;
-				for(int k = 0; k < gradCalculator.length; k++){
-					der[i] += gradCalculator[k].getChange()[i];
-				} 				
-			}			
-		}		
+	}
+	
+	/**
+	 * Generate one model, and write its structure and log if it is not a search candidate
+	 * @param objective: objective function of the convert factor
+	 * @param str: structure to optimize
+	 * @param factor: convert factor
+	 * @param stopCriterion: stop criterion of the optimization, can be null
+	 * @param cFactor: if given, the run is a candidate in the search for the convert factor
+	 * @return RMSE, Spearman correlation of IFs vs. reconstructed distances, Spearman and Pearson correlations 
+	 * of wish distances vs. reconstructed distances. null if the optimization was stopped by the stop criterion
+	 * @throws Exception
+	 */
+	private double[] generateModel(ConstraintObjective objective, double[] str, double factor, StopCriterion stopCriterion, String... cFactor) throws Exception{
+		
+		initializeStructure(str, objective.getConstraints(), factor, objective.getNumberOfThreads());
 		
-		return cost;
+		String stop = optimize(objective, str, stopCriterion);
+		if (stop == null){
+			return null;
+		}
 		
+		return evaluateModel(objective.getConstraints(), str, factor, stop, cFactor);
 	}
-
+	
 	/**
-	 * calculate objective function only
+	 * Optimize variables with the optimizer of the parameters, for at most MAX_ITER iterations
+	 * @param objective
+	 * @param x: starting variables, receive the optimized variables
+	 * @param stopCriterion: stop criterion of the optimization, can be null
+	 * @return why the optimization stopped, for the log of the model. null if it was stopped by the stop criterion
+	 * @throws Exception
 	 */
-	@Override
-	public double calObjective(double[] x) throws InterruptedException {
+	private String optimize(OptimizedObject objective, double[] x, StopCriterion stopCriterion) throws Exception{
 		
-		return calGradientAndObjective(x,null);
+		Optimizer optimizer = newOptimizer(objective, x);
+		optimizer.setStopCriterion(stopCriterion);
+		optimizer.performOptimization(MAX_ITER);
+		
+		if (optimizer.isStopped()){
+			return null;
+		}
+		return describeStop(optimizer.getStopReason(), optimizer.getNumberOfIterations());
 	}
 	
-	
 	/**
-	 * This class is used to calculate the gradient for a subset of datapoints
-	 * in a single threaded program, all data points are i = 1 .. n and j = i+1 ... n
-	 * to calculate the gradient in parallel, one thread will be in charged of calculating for i = begin ... end
 	 * 
-	 * for any modification of the objective function, this function will need to be modified accordingly
-	 * @author Tuan
-	 *
+	 * @return why an optimization stopped, for the log of a model
 	 */
-	class GradientCaculator extends Thread{
-		//the first index to calculate the gradient
-		private int beg;
-		//the last index to calculate the gradient
-		private int end;
-		//gradient to be returned
-		double[] change;
-		//objective function
-		double cost=0;
-		//indicate if calculation for gradient is needed
-		boolean isGradientNeeded;
-		
-		// number of points 
-		int np = 0; 
-		double[] structure;
-		
-		GradientCaculator(double[] str, int b, int e, boolean isGradient){
-			this.beg = b;
-			this.end = e;		
-			this.structure = str;
-			this.isGradientNeeded = isGradient;
-			
-			
-			if (isGradientNeeded){
-				this.change = new double[n * 3];
-			}
-		}
-		
-		
-		/**
-		 * Calculate the chain rule derivative for the gradient calculation
-		 * @author Tosin
-		 */
-		
-		public double[] gradient_chain_calc() {
-			double [] d= new double[2];
-			double dist,x,z,ifr,w,dl_dw,dw_dv;
-			double v = 0;
-			int i,j;
-			Constraint con;
-			for(int k = beg; k <= end; k ++){
-				con = lstCons.get(k);
-				
-				i = con.getPos1();
-				j = con.getPos2();
-				dist = con.getDist();
-				
-				ifr = con.getIF();
-				
-				if (ifr <= 0) continue;
-				
-				// structure distance
-				x = Math.sqrt(helper.calEuclidianDist(structure[i * 3], structure[i * 3 + 1], 
-						structure[i * 3 + 2], structure[j * 3], structure[j * 3 + 1], structure[j * 3 + 2]));
-				// IF distance = dist
-				int pow = 2;
-				z = Math.pow(x - dist,pow);
-				v+= z;
+	private static String describeStop(StopReason reason, int nbrIterations){
+		return reason.getDescription() + " after " + nbrIterations + " iterations";
+	}
+	
+	/**
+	 * Create the optimizer of the parameters
+	 * @param objective
+	 * @param x: starting variables, receive the optimized variables
+	 * @return
+	 */
+	private Optimizer newOptimizer(OptimizedObject objective, double[] x){
+		
+		Optimizer optimizer;
+		if (OPTIMIZER.equals("lbfgs")){
+			optimizer = new LBFGS(objective, x, VERBOSE);
+		}else{
+			GradientAscent gradientAscent;
+			if (OPTIMIZER.equals("adam")){
+				gradientAscent = new AdamAscent(objective, x, VERBOSE);
+			}else if (OPTIMIZER.equals("rmsprop")){
+				gradientAscent = new RMSPropAscent(objective, x, VERBOSE);
+			}else if (OPTIMIZER.equals("nesterov")){
+				gradientAscent = new NesterovAscent(objective, x, VERBOSE);
+			}else{
+				gradientAscent = new GradientAscent(objective, x, VERBOSE);
 			}
-			
-			w = Math.sqrt(v/n);
-			dl_dw = -n/w;
-			dw_dv = 1/(2*Math.sqrt(n*v));
-			// System.out.printf("The n = %d , v = %f, np*v = %f, sqrt = %f, 2*sqrt = %f, 1over = %f\n",n, v , n*v, Math.sqrt(n*v), 2*Math.sqrt(n*v), 	dw_dv );
-			
-			d[0] = dl_dw; d[1]= dw_dv ;
-			
-			return d;
+			if (LEARNING_RATE != 0){
+				gradientAscent.setInitialLearingRate(LEARNING_RATE);
+			}
+			gradientAscent.setLineSearch(LINE_SEARCH);
+			optimizer = gradientAscent;
+		}
+		if (CONVERGENCE_WINDOW > 0 || MIN_STEP > 0 || TIME_LIMIT > 0){
+			optimizer.setConvergenceCriteria(new ConvergenceCriteria(CONVERGENCE_WINDOW, CONVERGENCE_TOLERANCE, MIN_STEP, TIME_LIMIT));
 		}
+		return optimizer;
+	}
+	
+	/**
+	 * Compute the metrics of a model, and write its structure and log if it is not a search candidate
+	 * @param constraints: constraints of the convert factor
+	 * @param str: structure of the model
+	 * @param factor: convert factor
+	 * @param stop: why the optimization stopped
+	 * @param cFactor: if given, the run is a candidate in the search for the convert factor
+	 * @return RMSE, Spearman correlation of IFs vs. reconstructed distances, Spearman and Pearson correlations 
+	 * of wish distances vs. reconstructed distances
+	 * @throws Exception
+	 */
+	private double[] evaluateModel(ConstraintSet constraints, double[] str, double factor, String stop, String... cFactor) throws Exception{
+		String fileName;
+		String logFileName = "";		
+		PrintWriter logPW = null;
+		double rmsd,cor,corDist,pcorDist;
+		boolean isOutput = false;
 		
+		String currentTimeMillis = nextTimestamp();
 		
+		if (cFactor != null && cFactor.length > 0){
+			fileName = FILE_PREFIX + "_" + currentTimeMillis + "_" + cFactor[0] + ".pdb" ;
+			isOutput = false;
+		}else{
+			fileName = FILE_PREFIX + "_" + currentTimeMillis + ".pdb" ;
+			
+			isOutput = true;
+		}
 		
-		public void run(){
-			double dist,x,ez,tmp,z,ifr,dl_dw ,dw_dv, val = 0;			
-			int i,j;
-			Constraint con;
-			double [] d = gradient_chain_calc();  // partial_derivatives
-			for(int k = beg; k <= end; k ++){
-				
-				con = lstCons.get(k);
-				
-				i = con.getPos1();
-				j = con.getPos2();
-				dist = con.getDist();
-				
-				
-				ifr = con.getIF();
-				
-				if (ifr <= 0) continue;
-								
-				
-				// set adjacent point frequency
-				if (Math.abs(i - j) == 1 && idToChr.get(i) == idToChr.get(j)){
-					ifr = 1.0 * maxIF;
-				}				
-
-				
-				x = Math.sqrt(helper.calEuclidianDist(structure[i * 3], structure[i * 3 + 1], 
-						structure[i * 3 + 2], structure[j * 3], structure[j * 3 + 1], structure[j * 3 + 2]));
+		//print out log			
+		if (isOutput){
+			String header = "3DMax Structure by Oluwatosin Oluwadare et al";
 			
-				
-				z = x - dist;		
-				
-				// the remaining part of dv_d(x,y,z)
-				tmp =  d[0] * d[1] * 2 * (z / x)  ;
-				
-				// objective function
-				int pow = 2;
-				val += Math.pow(z,pow);
+			helper.writeStructure(OUTPUT_FOLDER + "/" + fileName,str, idToChr, header);
 			
-				
-				if ( isGradientNeeded){					 
-					
-					change[i * 3] += tmp * (structure[i * 3] - structure[j * 3]);
-					change[i * 3 + 1] += tmp * (structure[i * 3 + 1] - structure[j * 3 + 1]);
-					change[i * 3 + 2] += tmp * (structure[i * 3 + 2] - structure[j * 3 + 2]);
-					
-					change[j * 3] += tmp * (structure[j * 3] - structure[i * 3]);
-					change[j * 3 + 1] += tmp * (structure[j * 3 + 1] - structure[i * 3 + 1]);
-					change[j * 3 + 2] += tmp * (structure[j * 3 + 2] - structure[i * 3 + 2]);
-					
+			logFileName =  FILE_PREFIX + "_log_" + currentTimeMillis + ".txt";
+			logPW = new PrintWriter(OUTPUT_FOLDER + "/" + logFileName);
+			logPW.println("Input file: " + INPUT_FILE);
+			logPW.println("Convert factor: " + factor);
+			logPW.println("Learning rate: " + LEARNING_RATE);
+			logPW.println("Optimizer: " + OPTIMIZER);
+			logPW.println("Stop reason: " + stop);
+			if (RESOLUTION_LEVELS != null){
+				logPW.println("Resolution levels: " + Arrays.toString(RESOLUTION_LEVELS));
+			}
+			if (chrLens != null){
+				logPW.print("Chromosome lengths:");
+				for(int k = 0; k < chrLens.length; k++){
+					logPW.print(chrLens[k] + " ");
 				}
-
-				
+				logPW.println();
 			}
-			
-			cost = -(n/2) - (n*Math.log(Math.sqrt(val/n)));
-			
-		}
 
-		public double[] getChange() {
-			return change;
+			logPW.flush();
+		
 		}
 		
-		public double getCost() {
-			return cost;
+		rmsd = CalRMSD.rmse(str, constraints);
+		cor = CalRMSD.correlationIFvsDist(str, constraints, interval);
+		corDist = CalRMSD.correlationWishDistvsDist(str, constraints, interval);
+		pcorDist = CalRMSD.PearsoncorrelationWishDistvsDist(str, constraints, interval);
+		
+		if (isOutput){
+			logPW.println("RMSE: " + rmsd);
+			logPW.println("Spearman correlation IFs vs. Reconstructed Dist: " + cor);
+			logPW.println("Spearman correlation WishDist vs. Reconstructed Dist: " + corDist);
+			logPW.println("Pearson correlation WishDist vs. Reconstructed Dist: " + pcorDist);
+			logPW.flush();
+			logPW.close();
+			
 		}
 		
+//		System.out.println("RMSE: " + rmsd);
+//		System.out.println("Spearman correlation IFs vs. Reconstructed Dist: " + cor);
+//		System.out.println("Spearman correlation WishDist vs. Reconstructed Dist: " + corDist);
+		
+		return new double[]{rmsd, cor, corDist, pcorDist};
+	}
+	
+	/**
+	 * Timestamp to name the output files of a model, timestamps are unique even if models finish in the same millisecond
+	 * @return
+	 */
+	private synchronized String nextTimestamp(){
+		lastTimestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+		return lastTimestamp + "";
 	}
+	
+	/**
+	 * Write the averages of the models of a run to the log
+	 * @param factor: convert factor
+	 * @param metrics: metrics of the models, as returned by generateModel
+	 * @param run_nbr: number of models
+	 * @return average Spearman correlation of IFs vs. reconstructed distances
+	 * @throws Exception
+	 */
+	private double writeAverages(double factor, double[][] metrics, int run_nbr) throws Exception{
+		double avgRMSD = 0,avgCor = 0, avgCorDist = 0, avgPearsonCorDist = 0;
+		for(int i = 0; i < run_nbr; i++){
+			avgRMSD += metrics[i][0];
+			avgCor += metrics[i][1];
+			avgCorDist += metrics[i][2];
+			avgPearsonCorDist += metrics[i][3];
+		}
+				
+		avgRMSD /= run_nbr;
+		avgCor /= run_nbr;
+		avgCorDist /= run_nbr;
+		avgPearsonCorDist/=run_nbr;
+		
+		//candidates of a parallel search write the same log
+		synchronized(logLock){
+			PrintWriter pw = new PrintWriter(OUTPUT_FOLDER + "/" + FILE_PREFIX + "_log.txt");
+			pw.println("Input file: " + INPUT_FILE);
+			pw.println("Convert factor: " + factor);
+			pw.println("Learning rate: " + LEARNING_RATE);
+			if (chrLens != null){
+				pw.print("Chromosome lengths:");
+				for(int k = 0; k < chrLens.length; k++){
+					pw.print(chrLens[k] + " ");
+				}
+				pw.println();
+			}
 
+			pw.println("AVG RMSE: " + avgRMSD);
+			pw.println("AVG Spearman correlation IFs vs. Reconstructed Dist: " + avgCor);
+			pw.println("AVG Spearman correlation WishDist vs. Reconstructed Dist: " + avgCorDist);
+			pw.println("AVG Pearson correlation WishDist vs. Reconstructed Dist: " + avgPearsonCorDist);
+			pw.close();
+		
+			System.out.println("AVG RMSE: " + avgRMSD);
+			System.out.println("AVG Spearman correlation IFs vs. Reconstructed Dist: " + avgCor);
+			System.out.println("AVG Spearman correlation WishDist vs. Reconstructed Dist: " + avgCorDist);
+			System.out.println("AVG Pearson correlation WishDist vs. Reconstructed Dist: " + avgPearsonCorDist);
+		}
+		
+		return avgCor;
+	}
+	
+	
+	
 	
 	public static void main(String[] args) throws Exception{
 				
@@ -0,0 +1,177 @@
+package algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import optimization.StopCriterion;
+import utility.Helper;
+import valueObject.Constants;
+import valueObject.ContactData;
+import evaluation.Evaluate;
+
+/**
+ * Asynchronous successive halving for the convert factor search
+ *
+ * An optimization is checked at a few rungs, the iterations N / rate^k, where N is the number of iterations of the first optimization 
+ * that finished, so that the rungs come before optimizations converge, whatever the optimizer and MAX_ITER. 
+ * Rungs earlier than MIN_HALVING_ITERATION are dropped, but there is always at least one rung.
+ * At a rung, the Spearman correlation of IFs vs. reconstructed distances is estimated on a sample of contacts and compared to 
+ * the estimates of the optimizations that reached the same rung before.
+ * The optimization goes on only if it is among the best 1/rate of them, otherwise its candidate can't beat the best one and is stopped.
+ * The first optimizations at a rung always go on, so the search has at least one candidate left.
+ * Optimizations started before the rungs are known are not checked
+ *
+ * One instance is shared by all candidates of a search, candidates may run in different threads
+ *
+ */
+public class SuccessiveHalving {
+
+	private Helper helper = Helper.getHelperInstance();
+
+	//iterations at which optimizations are checked, increasing, null until an optimization finished
+	private volatile int[] rungs;
+
+	//correlation estimates of the optimizations that reached each rung
+	private List<List<Double>> lstEstimate = new ArrayList<List<Double>>();
+
+	//sampled contacts, IFs don't depend on the convert factor, so the sample is shared by all candidates
+	private int[] pos1;
+	private int[] pos2;
+	private double[] IF;
+
+	/**
+	 *
+	 * @param contacts: contacts used by the optimization
+	 */
+	public SuccessiveHalving(ContactData contacts){
+
+		//evenly spaced sample of the contacts
+		int m = contacts.size();
+		int size = Math.min(m, Constants.CORRELATION_SAMPLE_SIZE);
+		pos1 = new int[size];
+		pos2 = new int[size];
+		IF = new double[size];
+		int k;
+		for(int t = 0; t < size; t++){
+			k = (int) ((long) t * m / size);
+			pos1[t] = contacts.getPos1()[k];
+			pos2[t] = contacts.getPos2()[k];
+			IF[t] = contacts.getIF()[k];
+		}
+	}
+
+	/**
+	 *
+	 * @return a trial for one optimization, to be used as its stop criterion
+	 */
+	public Trial newTrial(){
+		return new Trial(rungs);
+	}
+
+	/**
+	 * Place the rungs if no optimization finished before. If the optimization finished too early for any rung, 
+	 * even after 0 iterations, there is one rung at MIN_HALVING_ITERATION, so halving is never turned off
+	 * @param iterations: number of iterations of an optimization that finished
+	 */
+	synchronized void setRungs(int iterations){
+		if (rungs != null){
+			return;
+		}
+
+		//rungs from the last one backward, rungs too early to tell anything are dropped
+		List<Integer> lstRung = new ArrayList<Integer>();
+		int iter = iterations;
+		for(int k = 0; k < Constants.HALVING_RUNGS; k++){
+			iter /= Constants.HALVING_RATE;
+			if (iter < Constants.MIN_HALVING_ITERATION){
+				break;
+			}
+			lstRung.add(0, iter);
+		}
+		if (lstRung.isEmpty()){
+			lstRung.add(Constants.MIN_HALVING_ITERATION);
+		}
+		int[] r = new int[lstRung.size()];
+		for(int k = 0; k < r.length; k++){
+			r[k] = lstRung.get(k);
+			lstEstimate.add(new ArrayList<Double>());
+		}
+		rungs = r;
+	}
+
+	/**
+	 * Stop criterion of one optimization, checked at the rungs known when it started
+	 */
+	public class Trial implements StopCriterion{
+
+		//rungs of this optimization, null if none were known when it started
+		private int[] trialRungs;
+
+		//the next rung to check
+		private int rung = 0;
+
+		//last iteration of the optimization
+		private int iteration = 0;
+
+		Trial(int[] rungs){
+			this.trialRungs = rungs;
+		}
+
+		@Override
+		public boolean shouldStop(int iteration, double[] x, double objective) throws Exception {
+			this.iteration = iteration;
+			if (trialRungs == null || rung >= trialRungs.length || iteration < trialRungs[rung]){
+				return false;
+			}
+			return !isPromoted(rung++, estimateCorrelation(x));
+		}
+
+		/**
+		 * Called when the optimization finished without being stopped, the first one to finish places the rungs
+		 */
+		public void finish(){
+			setRungs(iteration);
+		}
+	}
+
+	/**
+	 * Spearman correlation of IFs vs. distances of a structure on the sampled contacts
+	 * @param str
+	 * @return
+	 * @throws Exception
+	 */
+	double estimateCorrelation(double[] str) throws Exception{
+		double[] dist = new double[IF.length];
+		int i,j;
+		for(int t = 0; t < IF.length; t++){
+			i = pos1[t];
+			j = pos2[t];
+			dist[t] = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
+		}
+		return Evaluate.calSpearmanCorrelation(dist, IF);
+	}
+
+	/**
+	 * Record the estimate of an optimization at a rung
+	 * @param rung
+	 * @param estimate: estimated correlation, smaller is better
+	 * @return true if the estimate is among the best 1/rate of the estimates at the rung so far
+	 */
+	synchronized boolean isPromoted(int rung, double estimate){
+		List<Double> lst = lstEstimate.get(rung);
+		lst.add(estimate);
+		if (lst.size() < Constants.HALVING_RATE){
+			return true;
+		}
+
+		int better = 0;
+		for(double e : lst){
+			if (e < estimate){
+				better++;
+			}
+		}
+
+		return better < (lst.size() + Constants.HALVING_RATE - 1) / Constants.HALVING_RATE;
+	}
+
+}
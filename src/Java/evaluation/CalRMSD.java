@@ -8,6 +8,7 @@ import java.util.Map;
 //import shrec3D.Evaluate;
 import utility.Helper;
 import valueObject.Constraint;
+import valueObject.ConstraintSet;
 
 /**
  * To calculate RMSD of a reconstructed structure and wish distances
@@ -115,7 +116,7 @@ public class CalRMSD {
 		return Evaluate.calSpearmanCorrelation(dist, conMT);
 	}
 	
-	public static double correlationIFvsDist(double[] str, List<Constraint> lstCon, int interval) throws Exception{		
+	public static double correlationIFvsDist(double[] str, ConstraintSet cons, int interval) throws Exception{		
 		
 		int n = str.length / 3;// number of points
 		int len = n * (n - 1) / 2;
@@ -126,13 +127,15 @@ public class CalRMSD {
 				
 		int i,j,count = 0;
 		double d;
-		for(Constraint con:lstCon){
-			i = con.getPos1();
-			j = con.getPos2();
-			if (i != j && Math.abs(i - j) >= interval && con.getIF() > 0 && count<=len-1){				
+		int[] pos1 = cons.getPos1(), pos2 = cons.getPos2();
+		double[] IF = cons.getIF();
+		for(int k = 0; k < cons.size(); k++){
+			i = pos1[k];
+			j = pos2[k];
+			if (i != j && Math.abs(i - j) >= interval && IF[k] > 0 && count<=len-1){				
 				d = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
 				dist[count] = d;
-				IFs[count] = con.getIF();
+				IFs[count] = IF[k];
 				//System.out.println(String.format("Varibale count  = %d, i = %d, j = %d", count, i,j));
 				count++;
 			}
@@ -141,7 +144,7 @@ public class CalRMSD {
 		return Evaluate.calSpearmanCorrelation(dist, IFs);
 		//return correlationIFvsDist(calculateDistMT(str), lstCon, interval);
 	}
-	public static double correlationWishDistvsDist(double[] str, List<Constraint> lstCon, int interval) throws Exception{		
+	public static double correlationWishDistvsDist(double[] str, ConstraintSet cons, int interval) throws Exception{		
 		
 		int n = str.length / 3;// number of points
 		int len = n * (n - 1) / 2;
@@ -149,13 +152,15 @@ public class CalRMSD {
 		double[] wishDist = new double[len];
 		int i,j,count = 0;
 		double d;
-		for(Constraint con:lstCon){
-			i = con.getPos1();
-			j = con.getPos2();
-			if (i != j && Math.abs(i - j) >= interval && con.getIF() > 0 && count<=len-1){
+		int[] pos1 = cons.getPos1(), pos2 = cons.getPos2();
+		double[] IF = cons.getIF(), consDist = cons.getDist();
+		for(int k = 0; k < cons.size(); k++){
+			i = pos1[k];
+			j = pos2[k];
+			if (i != j && Math.abs(i - j) >= interval && IF[k] > 0 && count<=len-1){
 				d = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
 				dist[count] = d;
-				wishDist[count] = con.getDist();
+				wishDist[count] = consDist[k];
 				count++;
 			}
 		}		
@@ -164,7 +169,7 @@ public class CalRMSD {
 		//return correlationIFvsDist(calculateDistMT(str), lstCon, interval);
 	}
 
-	public static double PearsoncorrelationWishDistvsDist(double[] str, List<Constraint> lstCon, int interval) throws Exception{		
+	public static double PearsoncorrelationWishDistvsDist(double[] str, ConstraintSet cons, int interval) throws Exception{		
 			
 			int n = str.length / 3;// number of points
 			int len = n * (n - 1) / 2;
@@ -172,13 +177,15 @@ public class CalRMSD {
 			double[] wishDist = new double[len];
 			int i,j,count = 0;
 			double d;
-			for(Constraint con:lstCon){
-				i = con.getPos1();
-				j = con.getPos2();
-				if (i != j && Math.abs(i - j) >= interval && con.getIF() > 0 && count<=len-1){
+			int[] pos1 = cons.getPos1(), pos2 = cons.getPos2();
+			double[] IF = cons.getIF(), consDist = cons.getDist();
+			for(int k = 0; k < cons.size(); k++){
+				i = pos1[k];
+				j = pos2[k];
+				if (i != j && Math.abs(i - j) >= interval && IF[k] > 0 && count<=len-1){
 					d = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
 					dist[count] = d;
-					wishDist[count] = con.getDist();
+					wishDist[count] = consDist[k];
 					count++;
 				}
 			}		
@@ -189,17 +196,19 @@ public class CalRMSD {
 	
 	
 	
-	public static double rmse(double[] str, List<Constraint> lstCon){
+	public static double rmse(double[] str, ConstraintSet cons){
 		double d,sum = 0.0;
 		int i,j;
-		for(Constraint con:lstCon){
-			i = con.getPos1();
-			j = con.getPos2();
+		int[] pos1 = cons.getPos1(), pos2 = cons.getPos2();
+		double[] consDist = cons.getDist();
+		for(int k = 0; k < cons.size(); k++){
+			i = pos1[k];
+			j = pos2[k];
 			d = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
-			sum += (d - con.getDist()) * (d - con.getDist());
+			sum += (d - consDist[k]) * (d - consDist[k]);
 		}
 		
-		sum /= lstCon.size();
+		sum /= cons.size();
 		
 		return Math.sqrt(sum);
 
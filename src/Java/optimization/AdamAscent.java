@@ -0,0 +1,70 @@
+package optimization;
+
+import java.util.Arrays;
+
+/**
+ * Gradient ascent with Adam: the step of a variable is the moving average of its derivative divided by the square root
+ * of the moving average of its squared derivative. Unlike AdaGrad, old gradients are forgotten, so the step doesn't keep decreasing
+ *
+ */
+public class AdamAscent extends GradientAscent{
+	
+	//decay rates of the moving averages of the gradient and of the squared gradient
+	private static final double BETA1 = 0.9;
+	private static final double BETA2 = 0.999;
+	
+	private static final double SMOOTH_FACTOR = 0.000001;
+	
+	//moving averages of the gradient and of the squared gradient
+	private double[] mean;
+	private double[] meanSquare;
+	
+	//BETA1^t and BETA2^t, for the bias correction of the moving averages
+	private double beta1Power;
+	private double beta2Power;
+	
+	public AdamAscent(OptimizedObject obj, double[] x, boolean ver){
+		super(obj, x, ver);
+	}
+	
+	@Override
+	protected void initializeState(int length){
+		if (mean == null || mean.length != length){
+			mean = new double[length];
+			meanSquare = new double[length];
+		}else{
+			Arrays.fill(mean, 0);
+			Arrays.fill(meanSquare, 0);
+		}
+		beta1Power = 1;
+		beta2Power = 1;
+	}
+	
+	@Override
+	protected double updateVariables(double[] variables, double[] change){
+		beta1Power *= BETA1;
+		beta2Power *= BETA2;
+		
+		//learning rate with the bias correction of both moving averages
+		double lr = getInitialLearingRate() * Math.sqrt(1 - beta2Power) / (1 - beta1Power);
+		double g, g2, m, v, d, norm = 0, step = 0;
+		for(int i = 0; i < variables.length; i++){
+			g = change[i];
+			g2 = g * g;
+			norm += g2;
+			
+			m = BETA1 * mean[i] + (1 - BETA1) * g;
+			v = BETA2 * meanSquare[i] + (1 - BETA2) * g2;
+			mean[i] = m;
+			meanSquare[i] = v;
+			
+			d = lr * m / (Math.sqrt(v) + SMOOTH_FACTOR);
+			step += d * d;
+			variables[i] += d; //gradient ascent find maximum
+		}
+		
+		stepNorm = Math.sqrt(step);
+		return Math.sqrt(norm);
+	}
+
+}
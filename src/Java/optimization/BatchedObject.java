@@ -0,0 +1,25 @@
+package optimization;
+
+/**
+ * 
+ * An OptimizedObject whose variables hold a batch of independent problems, interleaved point by point:
+ * variable i belongs to problem (i / 3) % getBatchSize(), and the objective function is the sum of the objective functions of the problems.
+ * GradientAscent checks the convergence of every problem on its own
+ *
+ */
+public interface BatchedObject extends OptimizedObject {
+	
+	/**
+	 * 
+	 * @return number of problems in the variables
+	 */
+	public int getBatchSize();
+	
+	/**
+	 * 
+	 * @param b: index of a problem
+	 * @return objective function of problem b at the last evaluation
+	 */
+	public double getObjective(int b);
+
+}
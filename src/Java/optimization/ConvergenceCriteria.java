@@ -0,0 +1,96 @@
+package optimization;
+
+/**
+ * Convergence criteria checked by an optimizer after every iteration, in addition to its gradient criterion:
+ * the relative change of the objective function over a window of iterations, the size of the step and the running time.
+ * A criterion is not used if its parameter is 0
+ * 
+ * An instance keeps the state of one optimization at a time, the history of the objective function is allocated once
+ *
+ */
+public class ConvergenceCriteria {
+	
+	//number of iterations over which the change of the objective function is measured
+	private int window;
+	
+	//the objective function stalled if it changed by less than tolerance * |objective| over the window
+	private double tolerance;
+	
+	//minimum root mean square change of the variables in one iteration
+	private double minStep;
+	
+	//time limit of an optimization, in nanoseconds
+	private long timeLimit;
+	
+	//objective function of the last window + 1 iterations, circularly
+	private double[] history;
+	
+	//number of iterations recorded since start
+	private int count;
+	
+	private long startTime;
+	
+	/**
+	 * 
+	 * @param window: number of iterations over which the change of the objective function is measured
+	 * @param tolerance: largest relative change of the objective function over the window for it to be stalled
+	 * @param minStep: minimum root mean square change of the variables in one iteration
+	 * @param timeLimit: time limit of an optimization in seconds
+	 */
+	public ConvergenceCriteria(int window, double tolerance, double minStep, double timeLimit){
+		this.window = window;
+		this.tolerance = tolerance;
+		this.minStep = minStep;
+		this.timeLimit = (long) (timeLimit * 1e9);
+		
+		if (window > 0){
+			history = new double[window + 1];
+		}
+	}
+	
+	/**
+	 * 
+	 * @return criteria with the same parameters and a state of their own, for an optimization running at the same time
+	 */
+	public ConvergenceCriteria copy(){
+		return new ConvergenceCriteria(window, tolerance, minStep, timeLimit / 1e9);
+	}
+	
+	/**
+	 * start a new optimization
+	 */
+	public void start(){
+		count = 0;
+		startTime = System.nanoTime();
+	}
+	
+	/**
+	 * 
+	 * @param objective: objective function at the current iteration
+	 * @param stepNorm: 2-norm of the change of the variables in the current iteration
+	 * @param nbrVariables: number of variables
+	 * @return the reason to stop, null if the optimization goes on
+	 */
+	public StopReason check(double objective, double stepNorm, int nbrVariables){
+		
+		if (history != null){
+			history[count % history.length] = objective;
+			count++;
+			//the oldest value is overwritten by the next iteration
+			if (count > window && Math.abs(objective - history[count % history.length]) <= tolerance * Math.abs(objective)){
+				return StopReason.OBJECTIVE_STALLED;
+			}
+		}
+		
+		if (minStep > 0 && stepNorm < minStep * Math.sqrt(nbrVariables)){
+			return StopReason.SMALL_STEP;
+		}
+		
+		if (timeLimit > 0 && System.nanoTime() - startTime >= timeLimit){
+			return StopReason.TIME_LIMIT;
+		}
+		
+		return null;
+	}
+
+}
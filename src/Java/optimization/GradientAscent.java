@@ -1,15 +1,23 @@
 package optimization;
 
 import static valueObject.Constants.NEAR_ZERO;
+
+import java.util.Arrays;
+
 import utility.Helper;
 import valueObject.Constants;
 
 /**
  * This class performs gradient descent using line search to find optimal step size
  * 
+ * Variables are updated by AdaGrad, subclasses use other update rules by overriding initializeState and updateVariables
+ * 
+ * The problems of a BatchedObject are optimized as if they were optimized one at a time: the update rules treat every variable on its own,
+ * and every problem has its own gradient and convergence criteria. A problem that converged keeps its variables while the others go on,
+ * the optimization stops when all of them converged. The line search is not available for a batch, its step would be shared
  *
  */
-public class GradientAscent {
+public class GradientAscent implements Optimizer{
 	
 	private OptimizedObject optimizedObject;
 	
@@ -25,12 +33,21 @@ public class GradientAscent {
 	//the objective function to be optimized
 	private double objectiveFn;
 	
-	//default step size
-	private double step_size = 0.5;
+	//last step size accepted by the line search, as a multiple of the update of the step rule
+	private double step_size = 1;
+	
+	//scale the updates with a line search
+	private boolean isLineSearch = false;
+	
+	//search direction of the line search
+	private double[] direction;
 	
 	//gradient 2-norm
 	private double gradientNorm;
 	
+	//2-norm of the last change of the variables, set by updateVariables
+	protected double stepNorm;
+	
 	private boolean verbose;
 	
 	private double initialLearingRate = Constants.INITIAL_LEARNING_RATE;
@@ -39,6 +56,30 @@ public class GradientAscent {
 	//the derivatives
 	private double[] Sum_Grad;
 	
+	//checked after every iteration, can stop the optimization before it converges
+	private StopCriterion stopCriterion;
+	
+	//the last optimization was stopped by the stop criterion
+	private boolean isStopped;
+	
+	//checked after every iteration in addition to the gradient, can be null
+	private ConvergenceCriteria convergenceCriteria;
+	
+	//why the last optimization stopped, and after how many iterations
+	private StopReason stopReason;
+	private int nbrIterations;
+	
+	//number of problems in the variables, see BatchedObject
+	private int batchSize = 1;
+	
+	//why every problem of a batch stopped, null while it goes on, and after how many iterations
+	private StopReason[] stopReasons;
+	private int[] iterationCounts;
+	
+	//gradient and step 2-norms of every problem of a batch at the last step
+	private double[] gradientNorms;
+	private double[] stepNorms;
+	
 	/**
 	 * this should be used when calling gradient ascent multiple times, 
 	 * set variables in very run but initialize derivative and tried_derivative once
@@ -65,18 +106,25 @@ public class GradientAscent {
 	}
 
 	/**
-	 * initialization is performed if this same GradientAscent instance is called multiple times
+	 * initialization is performed if this same GradientAscent instance is called multiple times,
+	 * buffers are reused when the number of variables doesn't change
 	 */
 	private void initialize(){
 		if (variables != null){
-			derivatives = new double[variables.length];			
-			triedVariables = new double[variables.length];
-			Sum_Grad =  new double[variables.length];			
+			if (derivatives == null || derivatives.length != variables.length){
+				derivatives = new double[variables.length];			
+				triedVariables = new double[variables.length];
+				direction = new double[variables.length];
+			}
+			initializeState(variables.length);
 		}
 		
 		gradientNorm = 0;
 		objectiveFn = 0;
-		// step_size = 0.5;//default value		
+		isStopped = false;
+		stopReason = null;
+		nbrIterations = 0;
+		step_size = 1;
 	}
 	
 	/**
@@ -85,60 +133,223 @@ public class GradientAscent {
 	 * @throws InterruptedException 
 	 */
 	public void performGradientAscent(int max_iteration) throws Exception{
+		batchSize = optimizedObject instanceof BatchedObject ? ((BatchedObject) optimizedObject).getBatchSize() : 1;
+		if (batchSize > 1){
+			performBatchAscent(max_iteration);
+			return;
+		}
+		
 		int count = 0;
 		initialize();
+		if (convergenceCriteria != null){
+			convergenceCriteria.start();
+		}
 		
 		//initial objective function value
-		double oldObj;
 		objectiveFn = optimizedObject.calGradientAndObjective(variables, derivatives);
 		
-
-	   // step_size = lineSearch(variables, derivatives, objectiveFn);	
-		updateVariables(variables, derivatives);
-		
+		boolean isImproving = takeStep();
 		
-		while(! isConvergence() && count < max_iteration){
+		while(isImproving && ! isConvergence() && count < max_iteration && stopReason == null){
 			
 			count++;			
-			oldObj = objectiveFn;
 			
 			objectiveFn = optimizedObject.calGradientAndObjective(variables, derivatives);
 			
-			//if the objective doesn't increase, it is like taking a step backward, accept it and 
-			//recalculate the step size
-			/*if (objectiveFn < oldObj){		
-				try{
-					step_size = lineSearch(variables, derivatives, objectiveFn);
-				}catch(Exception ex){
-					break;
-				}
-				//continue;
-			}
-			*/
 			if (verbose){
 				System.out.printf("Iteration %1$d, objective function:%2$.5f, length of gradient %3$.7f\n",count,objectiveFn,gradientNorm);
 			}
 			
 			//update variables with gradient
-			updateVariables(variables, derivatives);					
-			//step_size = initialLearingRate / (Math.sqrt(count));
+			isImproving = takeStep();
+			
+			if (stopCriterion != null && stopCriterion.shouldStop(count, variables, objectiveFn)){
+				isStopped = true;
+				stopReason = StopReason.STOP_CRITERION;
+				break;
+			}
+			
+			if (convergenceCriteria != null){
+				stopReason = convergenceCriteria.check(objectiveFn, stepNorm, variables.length);
+			}
+		}
+		
+		if (stopReason == null){
+			stopReason = !isImproving ? StopReason.NO_INCREASE : isConvergence() ? StopReason.GRADIENT : StopReason.MAX_ITERATION;
 		}
+		nbrIterations = count;
 		
 	}
 	
 	/**
-	 * check if the size of derivatives/gradient is close to zero
+	 * Gradient ascent on the problems of a batch, every problem stops on its own, 
+	 * the stop criterion and the time limit apply to the whole batch
+	 * @param max_iteration: maximum number of iterations of every problem
+	 * @throws Exception
 	 */
-	private boolean isConvergence(){
-		double sum = 0;
-		for(double d:derivatives){
-			sum += Math.pow(d, 2);
+	private void performBatchAscent(int max_iteration) throws Exception{
+		if (isLineSearch){
+			throw new IllegalStateException("A batch can't be optimized with a line search");
+		}
+		
+		BatchedObject batch = (BatchedObject) optimizedObject;
+		int K = batchSize, count = 0, active = K;
+		initialize();
+		if (stopReasons == null || stopReasons.length != K){
+			stopReasons = new StopReason[K];
+			iterationCounts = new int[K];
+			gradientNorms = new double[K];
+			stepNorms = new double[K];
+		}
+		Arrays.fill(stopReasons, null);
+		
+		ConvergenceCriteria[] criteria = null;
+		if (convergenceCriteria != null){
+			criteria = new ConvergenceCriteria[K];
+			for(int b = 0; b < K; b++){
+				criteria[b] = convergenceCriteria.copy();
+				criteria[b].start();
+			}
+		}
+		
+		objectiveFn = optimizedObject.calGradientAndObjective(variables, derivatives);
+		takeBatchStep();
+		
+		while(count < max_iteration){
+			
+			for(int b = 0; b < K; b++){
+				if (stopReasons[b] == null && gradientNorms[b] < NEAR_ZERO * Math.abs(batch.getObjective(b))){
+					stopBatchProblem(b, StopReason.GRADIENT, count);
+					active--;
+				}
+			}
+			if (active == 0){
+				break;
+			}
+			
+			count++;
+			
+			objectiveFn = optimizedObject.calGradientAndObjective(variables, derivatives);
+			
+			if (verbose){
+				System.out.printf("Iteration %1$d, objective function:%2$.5f, length of gradient %3$.7f, models going on: %4$d\n",count,objectiveFn,gradientNorm,active);
+			}
+			
+			takeBatchStep();
+			
+			if (stopCriterion != null && stopCriterion.shouldStop(count, variables, objectiveFn)){
+				isStopped = true;
+				for(int b = 0; b < K; b++){
+					if (stopReasons[b] == null){
+						stopBatchProblem(b, StopReason.STOP_CRITERION, count);
+					}
+				}
+				active = 0;
+				break;
+			}
+			
+			for(int b = 0; b < K && criteria != null; b++){
+				StopReason reason = stopReasons[b] == null ? criteria[b].check(batch.getObjective(b), stepNorms[b], variables.length / K) : null;
+				if (reason != null){
+					stopBatchProblem(b, reason, count);
+					active--;
+				}
+			}
+			if (active == 0){
+				break;
+			}
+		}
+		
+		for(int b = 0; b < K; b++){
+			if (stopReasons[b] == null){
+				stopBatchProblem(b, StopReason.MAX_ITERATION, count);
+			}
+		}
+		nbrIterations = count;
+	}
+	
+	/**
+	 * Record why a problem of a batch stopped, the problem that stops last gives the stop reason of the batch
+	 */
+	private void stopBatchProblem(int b, StopReason reason, int count){
+		stopReasons[b] = reason;
+		iterationCounts[b] = count;
+		stopReason = reason;
+	}
+	
+	/**
+	 * Update the variables of the problems of a batch that go on, the variables of the other problems are restored after the update rule, 
+	 * so that the state of the update rule doesn't move them. Gradient and step norms are computed for every problem
+	 */
+	private void takeBatchStep(){
+		System.arraycopy(variables, 0, triedVariables, 0, variables.length);
+		gradientNorm = updateVariables(variables, derivatives);
+		
+		int K = batchSize;
+		Arrays.fill(gradientNorms, 0);
+		Arrays.fill(stepNorms, 0);
+		double d, g;
+		for(int i = 0, b = 0; i < variables.length; i++){
+			if (stopReasons[b] != null){
+				variables[i] = triedVariables[i];
+			}else{
+				g = derivatives[i];
+				d = variables[i] - triedVariables[i];
+				gradientNorms[b] += g * g;
+				stepNorms[b] += d * d;
+			}
+			//next point of the interleaved layout, point i / 3 belongs to problem (i / 3) % K
+			if (i % 3 == 2 && ++b == K){
+				b = 0;
+			}
 		}
-		sum = Math.sqrt(sum);
+		for(int b = 0; b < K; b++){
+			gradientNorms[b] = Math.sqrt(gradientNorms[b]);
+			stepNorms[b] = Math.sqrt(stepNorms[b]);
+		}
+	}
+	
+	/**
+	 * Update the variables with the gradient in derivatives. 
+	 * With the line search, the update of the step rule is the search direction and the line search scales it
+	 * if it is an ascent direction
+	 * @return false if the line search can't increase the objective function anymore, the variables are not changed then
+	 * @throws InterruptedException
+	 */
+	private boolean takeStep() throws InterruptedException{
+		if (!isLineSearch){
+			gradientNorm = updateVariables(variables, derivatives);
+			return true;
+		}
+		
+		System.arraycopy(variables, 0, triedVariables, 0, variables.length);
+		gradientNorm = updateVariables(variables, derivatives);
 		
-		gradientNorm = sum;
+		double slope = 0, d;
+		for(int i = 0; i < variables.length; i++){
+			d = variables[i] - triedVariables[i];
+			direction[i] = d;
+			slope += derivatives[i] * d;
+		}
 		
-		if (sum < NEAR_ZERO * Math.abs(objectiveFn)){
+		//with momentum, the update is not always an ascent direction, it is kept as it is
+		if (!(slope > 0)){
+			return true;
+		}
+		
+		double directionNorm = stepNorm;
+		step_size = lineSearch(slope);
+		stepNorm = step_size * directionNorm;
+		return step_size > 0;
+	}
+	
+	/**
+	 * check if the size of derivatives/gradient is close to zero, 
+	 * the norm of the gradient is computed by updateVariables when the gradient is applied
+	 */
+	private boolean isConvergence(){
+		
+		if (gradientNorm < NEAR_ZERO * Math.abs(objectiveFn)){
 			return true;
 		}
 
@@ -146,66 +357,89 @@ public class GradientAscent {
 	}
 
 	/**
-	 * using Wolfe conditions to find inexact step size
-	 * @param currentFn
-	 * @param direction
-	 * @return the approximately optimal step size for gradient ascent
-	 * @throws Exception 
+	 * Backtracking line search along direction from triedVariables, only the objective function is evaluated at trial steps. 
+	 * The first step tried is twice the last accepted one, so the step can grow while the objective function allows it
+	 * @param slope: directional derivative of the objective function along direction, positive
+	 * @return step size satisfying the Armijo condition, the variables are at this step. 
+	 * 0 if there is none larger than NEAR_ZERO, the variables are back to triedVariables then
+	 * @throws InterruptedException 
 	 */
-	private double lineSearch(double[] variables, double[] direction, double currentFn) throws Exception{
+	private double lineSearch(double slope) throws InterruptedException{
 		
-		double alpha = initialLearingRate * 2;
+		double alpha = Math.min(2 * step_size, Constants.MAX_STEP_SIZE);
 
-		double f1,f2;
+		double f1;
 		
-		do{
-			alpha = 0.5 * alpha;
+		while(alpha >= NEAR_ZERO){
 			
-			updateVariables(triedVariables,variables,direction,alpha);
+			updateVariables(variables,triedVariables,direction,alpha);
 			
-			f1 = optimizedObject.calObjective(triedVariables);
-			f2 = currentFn + 0.5 * alpha * gradientNorm * gradientNorm;
+			f1 = optimizedObject.calObjective(variables);
 			
-		}while ( f1 < f2 && alpha >= NEAR_ZERO);
-		
-		if (alpha <= NEAR_ZERO){
-			System.err.println("Error in the objective function, try to reduce the initial learning rate !!! \n "
-					+ "If it is already small, stop the program and call up Tuan! :( ");
-			throw new Exception("Error in the objective function, try to reduce the initial learning rate !!! \n "
-					+ "If it is already small, stop the program and call up Tuan! :( ");
+			//NaN fails the test
+			if (f1 >= objectiveFn + Constants.ARMIJO_CONSTANT * alpha * slope){
+				if (verbose){
+					System.out.println("Step size is:" + alpha);		
+				}
+				return alpha;
+			}
+			
+			alpha = 0.5 * alpha;
 		}
 		
+		System.arraycopy(triedVariables, 0, variables, 0, variables.length);
 		if (verbose){
-			System.out.println("Learning rate is:" + alpha);		
+			System.out.println("The line search can't increase the objective function, the optimization stops");
 		}
 		
-		return alpha;
+		return 0;
+	
+	}
 	
+	/**
+	 * Reset the state of the update rule before an optimization, buffers are reused when the number of variables doesn't change.
+	 * Called by the constructor, so subclasses must not initialize their state fields in their declaration
+	 * @param length: number of variables
+	 */
+	protected void initializeState(int length){
+		if (Sum_Grad == null || Sum_Grad.length != length){
+			Sum_Grad =  new double[length];
+		}else{
+			Arrays.fill(Sum_Grad, 0);
+		}
 	}
 	
 	/**
-	 * update variables directly into the source
+	 * update variables directly into the source, the AdaGrad accumulator, the variables, 
+	 * the gradient norm and stepNorm are updated in the same pass
 	 * @param variables
 	 * @param change
-	 * @param stepSize
+	 * @return 2-norm of the gradient
 	 */
-	
-	
-	private void updateVariables(double[] variables,double[] change){
+	protected double updateVariables(double[] variables,double[] change){
 		double smooth_factor = 0.000001;
 		if (variables == null || change == null || variables.length != change.length){
-			return;
+			return gradientNorm;
 		}
 		
-		
+		double[] sumGrad = Sum_Grad;
+		double lr = initialLearingRate;
+		double g, g2, sum, d, norm = 0, step = 0;
 		for(int i = 0; i < variables.length; i++){
-			Sum_Grad[i] += Math.pow(change[i],2); // sum of squares of gradient		
+			g = change[i];
+			g2 = g * g;
+			norm += g2;
 			
-			double denum = smooth_factor + Sum_Grad[i] ; 
-			double adagrad = (initialLearingRate * change[i]) / (Math.sqrt(denum ));
+			sum = sumGrad[i] + g2; // sum of squares of gradient
+			sumGrad[i] = sum;
 			
-			variables[i] +=adagrad; //gradient ascent find maximum
+			d = (lr * g) / Math.sqrt(smooth_factor + sum);
+			step += d * d;
+			variables[i] += d; //gradient ascent find maximum
 		}
+		
+		stepNorm = Math.sqrt(step);
+		return Math.sqrt(norm);
 	}
 
 	/**
@@ -227,15 +461,55 @@ public class GradientAscent {
 			
 	}
 
+	@Override
+	public void performOptimization(int max_iteration) throws Exception{
+		performGradientAscent(max_iteration);
+	}
+	
+	@Override
 	public double[] getVariables() {
 		return variables;
 	}
 
-	public void setVariables(double[] variables) {
-		this.variables = variables;
-		if (this.variables != null && this.derivatives == null){
-			initialize();
-		}
+	@Override
+	public void setStopCriterion(StopCriterion stopCriterion) {
+		this.stopCriterion = stopCriterion;
+	}
+	
+	/**
+	 * 
+	 * @return true if the last optimization was stopped by the stop criterion before it converged
+	 */
+	@Override
+	public boolean isStopped() {
+		return isStopped;
+	}
+	@Override
+	public void setConvergenceCriteria(ConvergenceCriteria convergenceCriteria) {
+		this.convergenceCriteria = convergenceCriteria;
+	}
+	@Override
+	public StopReason getStopReason() {
+		return stopReason;
+	}
+	@Override
+	public int getNumberOfIterations() {
+		return nbrIterations;
+	}
+	@Override
+	public StopReason getStopReason(int b) {
+		return batchSize > 1 ? stopReasons[b] : stopReason;
+	}
+	@Override
+	public int getNumberOfIterations(int b) {
+		return batchSize > 1 ? iterationCounts[b] : nbrIterations;
+	}
+	/**
+	 * 
+	 * @param isLineSearch: true to scale every update by a backtracking line search on the objective function
+	 */
+	public void setLineSearch(boolean isLineSearch) {
+		this.isLineSearch = isLineSearch;
 	}
 	public double getInitialLearingRate() {
 		return initialLearingRate;
@@ -0,0 +1,430 @@
+package optimization;
+
+import static valueObject.Constants.NEAR_ZERO;
+
+import valueObject.Constants;
+
+/**
+ * This class performs limited memory BFGS, with a line search satisfying the strong Wolfe conditions
+ *
+ * The objective function of an OptimizedObject is maximized, so -f is minimized here:
+ * values and gradients kept by this class are the ones of -f.
+ * Only the last LBFGS_MEMORY corrections are kept, all buffers are allocated once
+ *
+ */
+public class LBFGS implements Optimizer{
+
+	//constants of the Wolfe conditions, sufficient decrease and curvature
+	private static final double C1 = 1e-4;
+	private static final double C2 = 0.9;
+
+	//maximum number of evaluations of one line search
+	private static final int MAX_LINE_SEARCH = 20;
+
+	private OptimizedObject optimizedObject;
+
+	//variables
+	private double[] variables;
+
+	//gradient of -f at the variables
+	private double[] gradient;
+
+	//search direction
+	private double[] direction;
+
+	//variables and gradient of -f at the last step tried by the line search
+	private double[] triedVariables;
+	private double[] triedGradient;
+	private double triedValue;
+
+	//last corrections in a circular buffer, s = change of the variables, y = change of the gradient, rho = 1 / (y.s)
+	private double[][] s;
+	private double[][] y;
+	private double[] rho;
+	private double[] alpha;
+
+	//number of corrections kept
+	private int memory = Constants.LBFGS_MEMORY;
+
+	//-f at the variables
+	private double value;
+
+	//gradient 2-norm
+	private double gradientNorm;
+
+	private boolean verbose;
+
+	//checked after every iteration, can stop the optimization before it converges
+	private StopCriterion stopCriterion;
+
+	//the last optimization was stopped by the stop criterion
+	private boolean isStopped;
+
+	//checked after every iteration in addition to the gradient, can be null
+	private ConvergenceCriteria convergenceCriteria;
+
+	//why the last optimization stopped, and after how many iterations
+	private StopReason stopReason;
+	private int nbrIterations;
+
+	//number of evaluations of the objective function by the last optimization, shown in the verbose log
+	private int nbrEvaluations;
+
+	/**
+	 *
+	 * @param obj is optimized
+	 * @param x : variables
+	 * @param ver = true or false
+	 */
+	public LBFGS(OptimizedObject obj, double[] x, boolean ver){
+		this.optimizedObject = obj;
+		this.variables = x;
+		this.verbose = ver;
+
+		initialize();
+	}
+
+	/**
+	 * buffers are allocated once, the corrections of a previous optimization are dropped
+	 */
+	private void initialize(){
+		int len = variables.length;
+		if (gradient == null || gradient.length != len){
+			gradient = new double[len];
+			direction = new double[len];
+			triedVariables = new double[len];
+			triedGradient = new double[len];
+			s = new double[memory][len];
+			y = new double[memory][len];
+			rho = new double[memory];
+			alpha = new double[memory];
+		}
+
+		gradientNorm = 0;
+		value = 0;
+		isStopped = false;
+		stopReason = null;
+		nbrIterations = 0;
+		nbrEvaluations = 0;
+	}
+
+	/**
+	 * The main steps of L-BFGS are performed here
+	 * @param max_iteration: maximum number of iterations
+	 * @throws Exception
+	 */
+	@Override
+	public void performOptimization(int max_iteration) throws Exception{
+		if (optimizedObject instanceof BatchedObject && ((BatchedObject) optimizedObject).getBatchSize() > 1){
+			throw new IllegalStateException("A batch can't be optimized by L-BFGS, its problems would share the steps");
+		}
+		int count = 0;
+		initialize();
+		if (convergenceCriteria != null){
+			convergenceCriteria.start();
+		}
+
+		//corrections are in s[newest], s[newest - 1], ... circularly
+		int nbrCorrections = 0, newest = memory - 1, next;
+		double step, slope, sy, ss;
+
+		value = evaluate(variables, gradient);
+		gradientNorm = Math.sqrt(dot(gradient, gradient));
+
+		while(! isConvergence() && count < max_iteration && stopReason == null){
+
+			count++;
+
+			computeDirection(nbrCorrections, newest);
+			slope = dot(gradient, direction);
+			if (!(slope < 0)){
+				//not a descent direction, start again from the steepest descent
+				nbrCorrections = 0;
+				computeDirection(nbrCorrections, newest);
+				slope = -gradientNorm * gradientNorm;
+			}
+
+			//without corrections the direction is not scaled, the first step has length 1
+			step = nbrCorrections == 0 ? Math.min(1.0, 1.0 / gradientNorm) : 1.0;
+			step = lineSearch(step, slope);
+
+			if (step == 0){
+				if (nbrCorrections == 0){
+					//no decrease along the steepest descent, the objective can't be improved at this precision
+					stopReason = StopReason.NO_INCREASE;
+					break;
+				}
+				nbrCorrections = 0;
+				continue;
+			}
+
+			//keep the correction if the curvature is positive
+			next = (newest + 1) % memory;
+			sy = 0;
+			ss = 0;
+			for(int i = 0; i < variables.length; i++){
+				s[next][i] = triedVariables[i] - variables[i];
+				y[next][i] = triedGradient[i] - gradient[i];
+				sy += s[next][i] * y[next][i];
+				ss += s[next][i] * s[next][i];
+			}
+			if (sy > 0){
+				rho[next] = 1.0 / sy;
+				newest = next;
+				nbrCorrections = Math.min(nbrCorrections + 1, memory);
+			}
+
+			System.arraycopy(triedVariables, 0, variables, 0, variables.length);
+			double[] tmp = gradient;
+			gradient = triedGradient;
+			triedGradient = tmp;
+			value = triedValue;
+			gradientNorm = Math.sqrt(dot(gradient, gradient));
+
+			if (verbose){
+				System.out.printf("Iteration %1$d, objective function:%2$.5f, length of gradient %3$.7f, step size %4$.7f, evaluations %5$d\n",count,-value,gradientNorm,step,nbrEvaluations);
+			}
+
+			if (stopCriterion != null && stopCriterion.shouldStop(count, variables, -value)){
+				isStopped = true;
+				stopReason = StopReason.STOP_CRITERION;
+				break;
+			}
+
+			if (convergenceCriteria != null){
+				stopReason = convergenceCriteria.check(-value, Math.sqrt(ss), variables.length);
+			}
+		}
+
+		if (stopReason == null){
+			stopReason = isConvergence() ? StopReason.GRADIENT : StopReason.MAX_ITERATION;
+		}
+		nbrIterations = count;
+
+	}
+
+	/**
+	 * check if the size of the gradient is close to zero, the same criterion as GradientAscent
+	 */
+	private boolean isConvergence(){
+		return gradientNorm < NEAR_ZERO * Math.abs(value);
+	}
+
+	/**
+	 * two loop recursion, direction = - H * gradient, H is the inverse Hessian approximated by the corrections
+	 * @param nbrCorrections
+	 * @param newest: index of the last correction
+	 */
+	private void computeDirection(int nbrCorrections, int newest){
+		double[] q = direction;
+		int k;
+		double beta, gamma = 1;
+
+		for(int i = 0; i < q.length; i++){
+			q[i] = -gradient[i];
+		}
+
+		for(int c = 0; c < nbrCorrections; c++){
+			k = (newest - c + memory) % memory;
+			alpha[k] = rho[k] * dot(s[k], q);
+			axpy(-alpha[k], y[k], q);
+		}
+
+		//scale of the initial Hessian
+		if (nbrCorrections > 0){
+			gamma = 1.0 / (rho[newest] * dot(y[newest], y[newest]));
+		}
+		for(int i = 0; i < q.length; i++){
+			q[i] *= gamma;
+		}
+
+		for(int c = nbrCorrections - 1; c >= 0; c--){
+			k = (newest - c + memory) % memory;
+			beta = rho[k] * dot(y[k], q);
+			axpy(alpha[k] - beta, s[k], q);
+		}
+	}
+
+	/**
+	 * find a step size satisfying the strong Wolfe conditions along the direction,
+	 * the step is increased until the minimum is bracketed, then the bracket is narrowed by zoom
+	 * @param step: first step to try
+	 * @param slope0: directional derivative at the variables, negative
+	 * @return step size, triedVariables, triedGradient and triedValue are at this step. 0 if no step decreases -f enough
+	 * @throws InterruptedException
+	 */
+	private double lineSearch(double step, double slope0) throws InterruptedException{
+		double f0 = value;
+		double prevStep = 0, prevF = f0, prevSlope = slope0;
+		double f, slope;
+
+		for(int k = 0; k < MAX_LINE_SEARCH; k++){
+			f = tryStep(step);
+			slope = dot(triedGradient, direction);
+
+			if (f > f0 + C1 * step * slope0 || (k > 0 && f >= prevF)){
+				return zoom(prevStep, prevF, prevSlope, step, f, slope, f0, slope0);
+			}
+			if (Math.abs(slope) <= -C2 * slope0 || k == MAX_LINE_SEARCH - 1){
+				return step;
+			}
+			if (slope >= 0){
+				return zoom(step, f, slope, prevStep, prevF, prevSlope, f0, slope0);
+			}
+
+			prevStep = step;
+			prevF = f;
+			prevSlope = slope;
+			step *= 2;
+		}
+
+		return step;
+	}
+
+	/**
+	 * narrow a bracket [lo, hi] containing a step satisfying the strong Wolfe conditions, lo satisfies the sufficient decrease
+	 * @return step size, or lo if the line search runs out of evaluations
+	 * @throws InterruptedException
+	 */
+	private double zoom(double lo, double fLo, double gLo, double hi, double fHi, double gHi, double f0, double slope0) throws InterruptedException{
+		double step, f, slope;
+
+		for(int k = 0; k < MAX_LINE_SEARCH; k++){
+			step = interpolate(lo, fLo, gLo, hi, fHi, gHi);
+			if (step == lo || step == hi){
+				break;
+			}
+
+			f = tryStep(step);
+			slope = dot(triedGradient, direction);
+
+			if (f > f0 + C1 * step * slope0 || f >= fLo){
+				hi = step;
+				fHi = f;
+				gHi = slope;
+			}else{
+				if (Math.abs(slope) <= -C2 * slope0){
+					return step;
+				}
+				if (slope * (hi - lo) >= 0){
+					hi = lo;
+					fHi = fLo;
+					gHi = gLo;
+				}
+				lo = step;
+				fLo = f;
+				gLo = slope;
+			}
+		}
+
+		//out of evaluations, lo still decreases -f enough
+		if (lo > 0){
+			tryStep(lo);
+		}
+		return lo;
+	}
+
+	/**
+	 * minimizer of the cubic interpolating -f and its derivative at lo and hi,
+	 * bisection if it is not defined or too close to the ends of the bracket
+	 */
+	private double interpolate(double lo, double fLo, double gLo, double hi, double fHi, double gHi){
+		double d1 = gLo + gHi - 3 * (fLo - fHi) / (lo - hi);
+		double d2 = Math.signum(hi - lo) * Math.sqrt(d1 * d1 - gLo * gHi);
+		double step = hi - (hi - lo) * (gHi + d2 - d1) / (gHi - gLo + 2 * d2);
+
+		double min = Math.min(lo, hi), width = Math.abs(hi - lo);
+		if (Double.isNaN(step) || step < min + 0.1 * width || step > min + 0.9 * width){
+			step = (lo + hi) / 2;
+		}
+		return step;
+	}
+
+	/**
+	 * evaluate -f and its gradient at variables + step * direction, into triedVariables and triedGradient
+	 * @return -f, infinity if f is not defined at the step
+	 * @throws InterruptedException
+	 */
+	private double tryStep(double step) throws InterruptedException{
+		for(int i = 0; i < variables.length; i++){
+			triedVariables[i] = variables[i] + step * direction[i];
+		}
+		triedValue = evaluate(triedVariables, triedGradient);
+		return triedValue;
+	}
+
+	/**
+	 * @return -f at x, infinity if f is not defined, der receives the gradient of -f
+	 * @throws InterruptedException
+	 */
+	private double evaluate(double[] x, double[] der) throws InterruptedException{
+		nbrEvaluations++;
+		double f = -optimizedObject.calGradientAndObjective(x, der);
+		for(int i = 0; i < der.length; i++){
+			der[i] = -der[i];
+		}
+		return Double.isNaN(f) ? Double.POSITIVE_INFINITY : f;
+	}
+
+	private static double dot(double[] a, double[] b){
+		double sum = 0;
+		for(int i = 0; i < a.length; i++){
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * b += a * x
+	 */
+	private static void axpy(double a, double[] x, double[] b){
+		for(int i = 0; i < b.length; i++){
+			b[i] += a * x[i];
+		}
+	}
+
+	@Override
+	public double[] getVariables() {
+		return variables;
+	}
+
+	@Override
+	public void setStopCriterion(StopCriterion stopCriterion) {
+		this.stopCriterion = stopCriterion;
+	}
+
+	/**
+	 *
+	 * @return true if the last optimization was stopped by the stop criterion before it converged
+	 */
+	@Override
+	public boolean isStopped() {
+		return isStopped;
+	}
+
+	@Override
+	public void setConvergenceCriteria(ConvergenceCriteria convergenceCriteria) {
+		this.convergenceCriteria = convergenceCriteria;
+	}
+
+	@Override
+	public StopReason getStopReason() {
+		return stopReason;
+	}
+
+	@Override
+	public int getNumberOfIterations() {
+		return nbrIterations;
+	}
+
+	@Override
+	public StopReason getStopReason(int b) {
+		return stopReason;
+	}
+
+	@Override
+	public int getNumberOfIterations(int b) {
+		return nbrIterations;
+	}
+
+}
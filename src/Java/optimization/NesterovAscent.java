@@ -0,0 +1,51 @@
+package optimization;
+
+import java.util.Arrays;
+
+/**
+ * Gradient ascent with Nesterov momentum, in the form that only needs the gradient at the current variables:
+ * velocity = MOMENTUM * velocity + rate * gradient, variables += MOMENTUM * velocity + rate * gradient
+ *
+ */
+public class NesterovAscent extends GradientAscent{
+	
+	private static final double MOMENTUM = 0.9;
+	
+	//velocity of every variable
+	private double[] velocity;
+	
+	public NesterovAscent(OptimizedObject obj, double[] x, boolean ver){
+		super(obj, x, ver);
+	}
+	
+	@Override
+	protected void initializeState(int length){
+		if (velocity == null || velocity.length != length){
+			velocity = new double[length];
+		}else{
+			Arrays.fill(velocity, 0);
+		}
+	}
+	
+	@Override
+	protected double updateVariables(double[] variables, double[] change){
+		double lr = getInitialLearingRate();
+		double g, step, v, d, norm = 0, stepSum = 0;
+		for(int i = 0; i < variables.length; i++){
+			g = change[i];
+			norm += g * g;
+			
+			step = lr * g;
+			v = MOMENTUM * velocity[i] + step;
+			velocity[i] = v;
+			
+			d = MOMENTUM * v + step;
+			stepSum += d * d;
+			variables[i] += d; //gradient ascent find maximum
+		}
+		
+		stepNorm = Math.sqrt(stepSum);
+		return Math.sqrt(norm);
+	}
+
+}
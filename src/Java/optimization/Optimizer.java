@@ -0,0 +1,64 @@
+package optimization;
+
+/**
+ * 
+ * An optimizer maximizes the objective function of an OptimizedObject, starting from the variables it was created with.
+ * The optimized variables are written into the same array
+ *
+ */
+public interface Optimizer {
+	
+	/**
+	 * 
+	 * @param max_iteration: maximum number of iterations
+	 * @throws Exception
+	 */
+	public void performOptimization(int max_iteration) throws Exception;
+	
+	/**
+	 * 
+	 * @param stopCriterion: checked after every iteration, null for none
+	 */
+	public void setStopCriterion(StopCriterion stopCriterion);
+	
+	/**
+	 * 
+	 * @return true if the last optimization was stopped by the stop criterion before it converged
+	 */
+	public boolean isStopped();
+	
+	/**
+	 * 
+	 * @param convergenceCriteria: checked after every iteration in addition to the gradient, null for none
+	 */
+	public void setConvergenceCriteria(ConvergenceCriteria convergenceCriteria);
+	
+	/**
+	 * 
+	 * @return why the last optimization stopped
+	 */
+	public StopReason getStopReason();
+	
+	/**
+	 * 
+	 * @return number of iterations of the last optimization
+	 */
+	public int getNumberOfIterations();
+	
+	/**
+	 * 
+	 * @param b: index of a problem of a BatchedObject
+	 * @return why problem b stopped in the last optimization
+	 */
+	public StopReason getStopReason(int b);
+	
+	/**
+	 * 
+	 * @param b: index of a problem of a BatchedObject
+	 * @return number of iterations of problem b in the last optimization
+	 */
+	public int getNumberOfIterations(int b);
+	
+	public double[] getVariables();
+
+}
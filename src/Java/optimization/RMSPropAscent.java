@@ -0,0 +1,54 @@
+package optimization;
+
+import java.util.Arrays;
+
+/**
+ * Gradient ascent with RMSProp: the step of a variable is its derivative divided by the square root
+ * of the moving average of its squared derivative. Unlike AdaGrad, old gradients are forgotten, so the step doesn't keep decreasing
+ *
+ */
+public class RMSPropAscent extends GradientAscent{
+	
+	//decay rate of the moving average of the squared gradient
+	private static final double DECAY = 0.9;
+	
+	private static final double SMOOTH_FACTOR = 0.000001;
+	
+	//moving average of the squared gradient
+	private double[] meanSquare;
+	
+	public RMSPropAscent(OptimizedObject obj, double[] x, boolean ver){
+		super(obj, x, ver);
+	}
+	
+	@Override
+	protected void initializeState(int length){
+		if (meanSquare == null || meanSquare.length != length){
+			meanSquare = new double[length];
+		}else{
+			Arrays.fill(meanSquare, 0);
+		}
+	}
+	
+	@Override
+	protected double updateVariables(double[] variables, double[] change){
+		double lr = getInitialLearingRate();
+		double g, g2, v, d, norm = 0, step = 0;
+		for(int i = 0; i < variables.length; i++){
+			g = change[i];
+			g2 = g * g;
+			norm += g2;
+			
+			v = DECAY * meanSquare[i] + (1 - DECAY) * g2;
+			meanSquare[i] = v;
+			
+			d = lr * g / Math.sqrt(v + SMOOTH_FACTOR);
+			step += d * d;
+			variables[i] += d; //gradient ascent find maximum
+		}
+		
+		stepNorm = Math.sqrt(step);
+		return Math.sqrt(norm);
+	}
+
+}
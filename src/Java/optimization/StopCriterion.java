@@ -0,0 +1,19 @@
+package optimization;
+
+/**
+ * 
+ * A stop criterion is checked by GradientAscent after every iteration, 
+ * so that an optimization can be stopped before it converges, e.g. when it is not promising
+ *
+ */
+public interface StopCriterion {
+	/**
+	 * 
+	 * @param iteration: number of iterations done
+	 * @param x: current variables
+	 * @param objective: current objective function
+	 * @return true to stop the optimization
+	 */
+	public boolean shouldStop(int iteration, double[] x, double objective) throws Exception;
+
+}
@@ -0,0 +1,28 @@
+package optimization;
+
+/**
+ * 
+ * Why an optimization stopped, written in the log of a model
+ *
+ */
+public enum StopReason {
+	
+	GRADIENT("the gradient is close to zero"),
+	OBJECTIVE_STALLED("the objective function stopped changing"),
+	SMALL_STEP("the step is below the minimum step"),
+	TIME_LIMIT("the time limit is reached"),
+	MAX_ITERATION("the maximum number of iterations is reached"),
+	NO_INCREASE("no step increases the objective function"),
+	STOP_CRITERION("stopped by the stop criterion");
+	
+	private final String description;
+	
+	private StopReason(String description){
+		this.description = description;
+	}
+	
+	public String getDescription() {
+		return description;
+	}
+
+}
@@ -0,0 +1,212 @@
+package utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import valueObject.ContactData;
+
+/**
+ * Binary cache of a parsed contact file, written next to the input file so later runs don't parse the text again.
+ *
+ * Layout, big endian:
+ * int magic, int version, long length and long last modified time of the input file, double contact threshold,
+ * int n, int m, int[n] positions, int[m] pos1, int[m] pos2, double[m] IF
+ *
+ * The cache is ignored when its version, the threshold, or the length or modification time of the input file don't match
+ *
+ */
+class ContactCache {
+
+	//the cache of input.txt is input.txt.3dmax.bin
+	static final String EXTENSION = ".3dmax.bin";
+
+	//"3DMX"
+	private static final int MAGIC = 0x33444D58;
+
+	//increase when the layout changes
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+
+	//largest region mapped or written at once
+	private static final int BLOCK_SIZE = 1 << 26;
+
+	static String getCacheFileName(String sourceFile){
+		return sourceFile + EXTENSION;
+	}
+
+	/**
+	 * Load the cache of a source file
+	 * @param sourceFile
+	 * @param threshold: threshold used to read the source file
+	 * @return contacts, or null if there is no valid cache for the source file
+	 */
+	static ContactData read(String sourceFile, double threshold){
+		File source = new File(sourceFile);
+		File cache = new File(getCacheFileName(sourceFile));
+		if (!cache.isFile() || cache.length() < HEADER_SIZE){
+			return null;
+		}
+
+		RandomAccessFile raf = null;
+		try{
+			raf = new RandomAccessFile(cache, "r");
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+			if (header.getInt() != MAGIC || header.getInt() != VERSION
+					|| header.getLong() != source.length() || header.getLong() != source.lastModified()
+					|| Double.doubleToLongBits(header.getDouble()) != Double.doubleToLongBits(threshold)){
+				System.out.println("The cache file " + cache.getPath() + " is out of date, the input file will be parsed again");
+				return null;
+			}
+
+			int n = header.getInt();
+			int m = header.getInt();
+			if (n < 0 || m < 0 || channel.size() != HEADER_SIZE + 4L * n + 16L * m){
+				System.out.println("The cache file " + cache.getPath() + " is incomplete, the input file will be parsed again");
+				return null;
+			}
+
+			int[] positions = new int[n];
+			int[] pos1 = new int[m];
+			int[] pos2 = new int[m];
+			double[] IF = new double[m];
+
+			long offset = HEADER_SIZE;
+			readInts(channel, offset, positions);
+			offset += 4L * n;
+			readInts(channel, offset, pos1);
+			offset += 4L * m;
+			readInts(channel, offset, pos2);
+			offset += 4L * m;
+			readDoubles(channel, offset, IF);
+
+			System.out.println("Contacts are loaded from the cache file " + cache.getPath());
+
+			return new ContactData(positions, pos1, pos2, IF, m);
+
+		}catch(IOException ex){
+			System.err.println("Error: could not read the cache file " + cache.getPath() + ", the input file will be parsed again");
+			return null;
+		}finally{
+			close(raf);
+		}
+	}
+
+	/**
+	 * Write the cache of a source file, failing to write the cache doesn't stop the program
+	 * @param sourceFile
+	 * @param threshold: threshold used to read the source file
+	 * @param data: contacts read from the source file
+	 */
+	static void write(String sourceFile, double threshold, ContactData data){
+		File source = new File(sourceFile);
+		File cache = new File(getCacheFileName(sourceFile));
+		//write to a temporary file first, so that a concurrent run never sees a partial cache
+		File tmp = new File(cache.getPath() + "." + System.nanoTime() + ".tmp");
+
+		RandomAccessFile raf = null;
+		try{
+			raf = new RandomAccessFile(tmp, "rw");
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = ByteBuffer.allocateDirect(BLOCK_SIZE);
+
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putLong(source.length());
+			buf.putLong(source.lastModified());
+			buf.putDouble(threshold);
+			buf.putInt(data.getNumberOfPoints());
+			buf.putInt(data.size());
+			buf.flip();
+			writeFully(channel, buf);
+
+			writeInts(channel, buf, data.getPositions(), data.getNumberOfPoints());
+			writeInts(channel, buf, data.getPos1(), data.size());
+			writeInts(channel, buf, data.getPos2(), data.size());
+			writeDoubles(channel, buf, data.getIF(), data.size());
+
+			channel.force(false);
+			close(raf);
+			raf = null;
+
+			Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			System.out.println("Contacts are cached in " + cache.getPath());
+
+		}catch(IOException ex){
+			System.err.println("Warning: could not write the cache file " + cache.getPath() + ": " + ex.getMessage());
+		}finally{
+			close(raf);
+			if (tmp.exists()){
+				tmp.delete();
+			}
+		}
+	}
+
+	private static void readInts(FileChannel channel, long offset, int[] a) throws IOException{
+		int done = 0, count;
+		while(done < a.length){
+			count = Math.min(a.length - done, BLOCK_SIZE / 4);
+			channel.map(FileChannel.MapMode.READ_ONLY, offset + 4L * done, 4L * count).asIntBuffer().get(a, done, count);
+			done += count;
+		}
+	}
+
+	private static void readDoubles(FileChannel channel, long offset, double[] a) throws IOException{
+		int done = 0, count;
+		while(done < a.length){
+			count = Math.min(a.length - done, BLOCK_SIZE / 8);
+			channel.map(FileChannel.MapMode.READ_ONLY, offset + 8L * done, 8L * count).asDoubleBuffer().get(a, done, count);
+			done += count;
+		}
+	}
+
+	private static void writeInts(FileChannel channel, ByteBuffer buf, int[] a, int len) throws IOException{
+		int done = 0, count;
+		while(done < len){
+			count = Math.min(len - done, BLOCK_SIZE / 4);
+			buf.clear();
+			buf.asIntBuffer().put(a, done, count);
+			buf.limit(4 * count);
+			writeFully(channel, buf);
+			done += count;
+		}
+	}
+
+	private static void writeDoubles(FileChannel channel, ByteBuffer buf, double[] a, int len) throws IOException{
+		int done = 0, count;
+		while(done < len){
+			count = Math.min(len - done, BLOCK_SIZE / 8);
+			buf.clear();
+			buf.asDoubleBuffer().put(a, done, count);
+			buf.limit(8 * count);
+			writeFully(channel, buf);
+			done += count;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException{
+		while(buf.hasRemaining()){
+			channel.write(buf);
+		}
+	}
+
+	private static void close(RandomAccessFile raf){
+		if (raf != null){
+			try{
+				raf.close();
+			}catch(IOException ex){
+				ex.printStackTrace();
+			}
+		}
+	}
+
+}
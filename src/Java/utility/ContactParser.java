@@ -0,0 +1,708 @@
+package utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import valueObject.ContactData;
+
+/**
+ * Streaming parser for contact files. In a contact list, each line is a contact of the form: pos1 pos2 IF.
+ * In a square matrix, line i holds the comma separated IFs of row i, only the upper triangle is read
+ *
+ * The file is split into byte ranges, a range owns the lines starting in it. Each range is read through a memory-mapped window 
+ * and numbers are parsed directly from the bytes into primitive columns, no String is created for a line, 
+ * positions are collected in a primitive set. Large files are parsed by one parser per range in parallel, 
+ * the ranges are then concatenated in file order, so the result is the same as a sequential read.
+ * Contacts are kept in blocks of fixed size, so the columns grow without being copied, and the final columns are
+ * assembled one at a time from the blocks, releasing each block once it is copied
+ * For a matrix, the lines of each range are counted first to know the row index of its first line
+ *
+ */
+class ContactParser {
+
+	//maximum size of a byte range
+	static final int RANGE_SIZE = 64 << 20;
+
+	//a line must end within this many bytes after the end of its range, matrix rows can be long
+	static final int MAX_LINE_LENGTH = 16 << 20;
+
+	//files smaller than this are read by a single thread
+	static final long MIN_PARALLEL_FILE_SIZE = 32L << 20;
+
+	//minimum size of a range when reading in parallel
+	static final int MIN_PARALLEL_RANGE_SIZE = 4 << 20;
+
+	//number of contacts in a block of the columns, must be a power of 2
+	static final int BLOCK_SIZE = 1 << 16;
+
+	//print progress every PROGRESS_LINES lines
+	static final int PROGRESS_LINES = 200000;
+
+	//mantissas up to 2^53 are exact in a double
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	//contacts with IF <= threshold are dropped
+	private double threshold;
+
+	//blocks of the contact columns, positions are genomic positions until the contacts are assembled
+	private List<int[]> blocks1 = new ArrayList<int[]>();
+	private List<int[]> blocks2 = new ArrayList<int[]>();
+	private List<double[]> blocksIF = new ArrayList<double[]>();
+
+	//last block of each column
+	private int[] pos1;
+	private int[] pos2;
+	private double[] IF;
+
+	//number of contacts
+	private int size = 0;
+
+	//genomic positions seen in the file
+	private IntSet setPos = new IntSet();
+
+	//number of contact lines read
+	private long lineCount = 0;
+
+	//the input is a square matrix instead of a contact list
+	private boolean isMatrix;
+
+	//row index of the next matrix line
+	private int row = 0;
+
+	//scratch space for numbers that are handed over to Double.parseDouble
+	private byte[] scratch = new byte[64];
+
+	//print progress while parsing, only for a sequential read
+	private boolean isReportingProgress;
+
+	ContactParser(double threshold, boolean isMatrix, boolean isReportingProgress){
+		this.threshold = threshold;
+		this.isMatrix = isMatrix;
+		this.isReportingProgress = isReportingProgress;
+	}
+
+	/**
+	 * Read a contact list or matrix file, in parallel if it is large enough and more than one thread is given
+	 * @param fileName
+	 * @param threshold: contacts with IF <= threshold are dropped
+	 * @param nbrThreads: number of threads to use
+	 * @param isMatrix: the file is a square matrix
+	 * @return contacts with positions mapped to indices
+	 * @throws Exception
+	 */
+	static ContactData parseFile(String fileName, double threshold, int nbrThreads, boolean isMatrix) throws Exception{
+		RandomAccessFile raf = null;
+		try{
+			raf = new RandomAccessFile(new File(fileName), "r");
+			final FileChannel channel = raf.getChannel();
+			final long fileSize = channel.size();
+			
+			if (nbrThreads <= 1 || fileSize < MIN_PARALLEL_FILE_SIZE){
+				ContactParser parser = new ContactParser(threshold, isMatrix, true);
+				for(long start = 0; start < fileSize; start += RANGE_SIZE){
+					parser.parseRange(channel, start, Math.min(start + RANGE_SIZE, fileSize), fileSize);
+				}
+				System.out.println(parser.lineCount + " input lines have been read !");
+				return merge(new ContactParser[]{parser});
+			}
+			
+			//several ranges per thread to balance the load
+			long rangeSize = fileSize / (nbrThreads * 4L) + 1;
+			rangeSize = Math.max(MIN_PARALLEL_RANGE_SIZE, Math.min(RANGE_SIZE, rangeSize));
+			int nbrRanges = (int) ((fileSize + rangeSize - 1) / rangeSize);
+			
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(nbrThreads, nbrRanges));
+			try{
+				ContactParser[] parsers = new ContactParser[nbrRanges];
+				for(int i = 0; i < nbrRanges; i++){
+					parsers[i] = new ContactParser(threshold, isMatrix, false);
+				}
+				
+				if (isMatrix){
+					//the row of a line is its line number, count the lines of each range first
+					List<Future<Long>> lstCount = new ArrayList<Future<Long>>();
+					for(int i = 0; i < nbrRanges; i++){
+						final long start = i * rangeSize;
+						final long end = Math.min(start + rangeSize, fileSize);
+						lstCount.add(executor.submit(new Callable<Long>(){
+							@Override
+							public Long call() throws Exception {
+								return countRange(channel, start, end, fileSize);
+							}
+						}));
+					}
+					long firstRow = 0;
+					for(int i = 0; i < nbrRanges; i++){
+						if (firstRow > Integer.MAX_VALUE){
+							throw new IOException("The matrix has too many rows");
+						}
+						parsers[i].row = (int) firstRow;
+						firstRow += lstCount.get(i).get();
+					}
+				}
+				
+				List<Future<ContactParser>> lstFuture = new ArrayList<Future<ContactParser>>();
+				for(int i = 0; i < nbrRanges; i++){
+					final long start = i * rangeSize;
+					final long end = Math.min(start + rangeSize, fileSize);
+					final ContactParser parser = parsers[i];
+					lstFuture.add(executor.submit(new Callable<ContactParser>(){
+						@Override
+						public ContactParser call() throws Exception {
+							parser.parseRange(channel, start, end, fileSize);
+							return parser;
+						}
+					}));
+				}
+				
+				//collect the ranges in file order
+				long lines = 0;
+				for(int i = 0; i < nbrRanges; i++){
+					parsers[i] = lstFuture.get(i).get();
+					lines += parsers[i].lineCount;
+					System.out.println(lines + " input lines have been read !");
+				}
+				
+				return merge(parsers);
+				
+			}finally{
+				executor.shutdownNow();
+			}
+		}finally{
+			if (raf != null){
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * Parse the lines starting in [start, end) of a file, the last line may extend beyond end
+	 * @param channel
+	 * @param start
+	 * @param end
+	 * @param fileSize
+	 * @throws IOException
+	 */
+	void parseRange(FileChannel channel, long start, long end, long fileSize) throws IOException{
+		int[] bounds = new int[2];
+		MappedByteBuffer buf = mapRange(channel, start, end, fileSize, bounds);
+		if (buf != null){
+			parse(buf, bounds[0], bounds[1]);
+		}
+	}
+
+	/**
+	 * Count the lines starting in [start, end) of a file, empty lines included
+	 * @param channel
+	 * @param start
+	 * @param end
+	 * @param fileSize
+	 * @return
+	 * @throws IOException
+	 */
+	static long countRange(FileChannel channel, long start, long end, long fileSize) throws IOException{
+		int[] bounds = new int[2];
+		MappedByteBuffer buf = mapRange(channel, start, end, fileSize, bounds);
+		if (buf == null){
+			return 0;
+		}
+		
+		int from = bounds[0], to = bounds[1];
+		long count = buf.get(to - 1) == '\n' ? 0 : 1;
+		for(int p = from; p < to; p++){
+			if (buf.get(p) == '\n'){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Map the lines starting in [start, end) of a file
+	 * @param channel
+	 * @param start
+	 * @param end
+	 * @param fileSize
+	 * @param bounds: receives the first byte of the first line and the byte after the last line in the returned buffer
+	 * @return the mapped buffer, or null if no line starts in the range
+	 * @throws IOException
+	 */
+	private static MappedByteBuffer mapRange(FileChannel channel, long start, long end, long fileSize, int[] bounds) throws IOException{
+		//one byte before start is needed to know if a line starts at start
+		long mapStart = Math.max(0, start - 1);
+		long mapEnd = Math.min(fileSize, end + MAX_LINE_LENGTH);
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+		
+		int limit = (int) (mapEnd - mapStart);
+		int from = (int) (start - mapStart);
+		int to = (int) (end - mapStart);
+		
+		//skip the line started in the previous range
+		if (start > 0){
+			while(from < to && buf.get(from - 1) != '\n'){
+				from++;
+			}
+		}
+		if (from >= to){
+			return null;
+		}
+		
+		//finish the last line of the range
+		while(to < limit && buf.get(to - 1) != '\n'){
+			to++;
+		}
+		if (to == limit && mapEnd < fileSize && buf.get(to - 1) != '\n'){
+			throw new IOException("A line is longer than " + MAX_LINE_LENGTH + " bytes");
+		}
+		
+		bounds[0] = from;
+		bounds[1] = to;
+		return buf;
+	}
+
+	/**
+	 * Concatenate the contacts of parsers in the given order and map positions to indices.
+	 * Columns are assembled one after the other and the blocks of a column are released as soon as they are copied,
+	 * the parsers should not be used afterwards
+	 * @param parsers
+	 * @return
+	 */
+	static ContactData merge(ContactParser[] parsers){
+		int total = 0;
+		IntSet setPos = parsers[0].setPos;
+		for(ContactParser parser : parsers){
+			total += parser.size;
+			if (parser.setPos != setPos){
+				setPos.addAll(parser.setPos);
+			}
+			parser.setPos = null;
+		}
+		int[] positions = setPos.toSortedArray();
+		setPos = null;
+		
+		int[] pos1 = mergePositions(parsers, true, positions, total);
+		int[] pos2 = mergePositions(parsers, false, positions, total);
+		
+		double[] IF = new double[total];
+		int m = 0;
+		for(ContactParser parser : parsers){
+			for(int b = 0; b < parser.blocksIF.size(); b++){
+				int len = parser.blockLength(b);
+				System.arraycopy(parser.blocksIF.get(b), 0, IF, m, len);
+				m += len;
+				parser.blocksIF.set(b, null);
+			}
+			parser.IF = null;
+		}
+		
+		return new ContactData(positions, pos1, pos2, IF, total);
+	}
+
+	/**
+	 * Concatenate the blocks of the first or second positions of parsers, mapping genomic positions to indices
+	 * @param parsers
+	 * @param isFirst: pos1 if true, pos2 otherwise
+	 * @param positions: sorted genomic positions
+	 * @param total: number of contacts of all parsers
+	 * @return
+	 */
+	private static int[] mergePositions(ContactParser[] parsers, boolean isFirst, int[] positions, int total){
+		int[] column = new int[total];
+		int m = 0;
+		for(ContactParser parser : parsers){
+			List<int[]> blocks = isFirst ? parser.blocks1 : parser.blocks2;
+			for(int b = 0; b < blocks.size(); b++){
+				int[] block = blocks.get(b);
+				int len = parser.blockLength(b);
+				for(int k = 0; k < len; k++){
+					column[m++] = Arrays.binarySearch(positions, block[k]);
+				}
+				blocks.set(b, null);
+			}
+			if (isFirst){
+				parser.pos1 = null;
+			}else{
+				parser.pos2 = null;
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * @return number of contacts in block b
+	 */
+	private int blockLength(int b){
+		return Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+	}
+
+	/**
+	 * Parse all lines in buf[from, to)
+	 * @param buf
+	 * @param from: first byte of a line
+	 * @param to: byte after the last line
+	 * @throws IOException
+	 */
+	void parse(ByteBuffer buf, int from, int to) throws IOException{
+		int p = from, eol;
+		while(p < to){
+			eol = p;
+			while(eol < to && buf.get(eol) != '\n'){
+				eol++;
+			}
+			if (isMatrix){
+				parseRow(buf, p, eol);
+			}else{
+				parseLine(buf, p, eol);
+			}
+			p = eol + 1;
+		}
+	}
+
+	/**
+	 * Parse one line, comment and empty lines are skipped
+	 */
+	private void parseLine(ByteBuffer buf, int p, int end) throws IOException{
+
+		if (p < end && buf.get(p) == '#'){
+			return;
+		}
+		p = skipSeparators(buf, p, end);
+		if (p >= end){
+			return;
+		}
+
+		int e = tokenEnd(buf, p, end);
+		int x = parseInt(buf, p, e);
+
+		p = skipSeparators(buf, e, end);
+		e = tokenEnd(buf, p, end);
+		if (p >= end){
+			throw new IOException("There is a line that doesn't contain exactly 3 numbers");
+		}
+		//position2
+		int y = parseInt(buf, p, e);
+
+		p = skipSeparators(buf, e, end);
+		e = tokenEnd(buf, p, end);
+		if (p >= end){
+			throw new IOException("There is a line that doesn't contain exactly 3 numbers");
+		}
+		//interaction frequency
+		double f = parseDouble(buf, p, e);
+
+		//keeping absolute positions, so that later they can be recovered from indices
+		if (x != y && !Double.isNaN(f) && f > threshold){
+			add(x, y, f);
+			setPos.add(x);
+			setPos.add(y);
+		}
+
+		lineCount++;
+		if (isReportingProgress && lineCount % PROGRESS_LINES == 0){
+			System.out.println(lineCount + " input lines have been read !");
+		}
+	}
+
+	/**
+	 * Parse one line of a square matrix, IF of the upper triangle only are read: columns after the row index,
+	 * empty lines are rows without contact
+	 */
+	private void parseRow(ByteBuffer buf, int p, int end) throws IOException{
+		int x = row++;
+		int col = 0, sep, s, e;
+		while(p < end){
+			sep = p;
+			while(sep < end && buf.get(sep) != ','){
+				sep++;
+			}
+			
+			if (col > x){
+				s = skipSeparators(buf, p, sep);
+				e = sep;
+				while(e > s && isSeparator(buf.get(e - 1))){
+					e--;
+				}
+				//an empty value is only allowed after the last comma
+				if (s < e || sep < end){
+					double f = parseDouble(buf, s, e);
+					if (!Double.isInfinite(f) && !Double.isNaN(f) && f > 0.0 && f > threshold){
+						add(x, col, f);
+						setPos.add(x);
+						setPos.add(col);
+					}
+				}
+			}
+			
+			col++;
+			p = sep + 1;
+		}
+		
+		lineCount++;
+		if (isReportingProgress && lineCount % PROGRESS_LINES == 0){
+			System.out.println(lineCount + " input lines have been read !");
+		}
+	}
+
+	/**
+	 * Add a contact, pos1 is always the smaller position
+	 */
+	void add(int x, int y, double f){
+		int k = size & (BLOCK_SIZE - 1);
+		if (k == 0){
+			pos1 = new int[BLOCK_SIZE];
+			pos2 = new int[BLOCK_SIZE];
+			IF = new double[BLOCK_SIZE];
+			blocks1.add(pos1);
+			blocks2.add(pos2);
+			blocksIF.add(IF);
+		}
+		if (x > y){
+			pos1[k] = y;
+			pos2[k] = x;
+		}else{
+			pos1[k] = x;
+			pos2[k] = y;
+		}
+		IF[k] = f;
+		size++;
+	}
+
+	static boolean isSeparator(byte b){
+		return b == ' ' || b == '\t' || b == ':' || b == '\r' || b == '\f' || b == 0x0B;
+	}
+
+	static int skipSeparators(ByteBuffer buf, int p, int end){
+		while(p < end && isSeparator(buf.get(p))){
+			p++;
+		}
+		return p;
+	}
+
+	static int tokenEnd(ByteBuffer buf, int p, int end){
+		while(p < end && !isSeparator(buf.get(p))){
+			p++;
+		}
+		return p;
+	}
+
+	/**
+	 * Parse an integer from buf[s, e)
+	 */
+	int parseInt(ByteBuffer buf, int s, int e){
+		int p = s;
+		boolean isNegative = false;
+		if (p < e && (buf.get(p) == '-' || buf.get(p) == '+')){
+			isNegative = buf.get(p) == '-';
+			p++;
+		}
+		if (p == e || e - p > 9){
+			//empty or possibly out of range, let Integer.parseInt decide
+			return Integer.parseInt(toString(buf, s, e));
+		}
+		int v = 0, d;
+		for(; p < e; p++){
+			d = buf.get(p) - '0';
+			if (d < 0 || d > 9){
+				return Integer.parseInt(toString(buf, s, e));
+			}
+			v = v * 10 + d;
+		}
+		return isNegative ? -v : v;
+	}
+
+	/**
+	 * Parse a double from buf[s, e), the result is the same as Double.parseDouble
+	 *
+	 * when the significant digits fit in 53 bits and the exponent is small, mantissa and power of ten are exactly representable,
+	 * one division or multiplication of them is correctly rounded. Other numbers are handed over to Double.parseDouble
+	 */
+	double parseDouble(ByteBuffer buf, int s, int e){
+		int p = s;
+		boolean isNegative = false;
+		if (p < e && (buf.get(p) == '-' || buf.get(p) == '+')){
+			isNegative = buf.get(p) == '-';
+			p++;
+		}
+
+		long mantissa = 0;
+		int digits = 0, exp10 = 0;
+		boolean hasDigit = false, hasDot = false;
+		byte c;
+		for(; p < e; p++){
+			c = buf.get(p);
+			if (c >= '0' && c <= '9'){
+				hasDigit = true;
+				if (mantissa != 0 || c != '0'){
+					if (++digits > 18){
+						return slowParseDouble(buf, s, e);
+					}
+					mantissa = mantissa * 10 + (c - '0');
+				}
+				if (hasDot){
+					exp10--;
+				}
+			}else if (c == '.' && !hasDot){
+				hasDot = true;
+			}else if ((c == 'e' || c == 'E') && hasDigit){
+				p++;
+				boolean isNegativeExp = false;
+				if (p < e && (buf.get(p) == '-' || buf.get(p) == '+')){
+					isNegativeExp = buf.get(p) == '-';
+					p++;
+				}
+				if (p == e || e - p > 3){
+					return slowParseDouble(buf, s, e);
+				}
+				int exp = 0;
+				for(; p < e; p++){
+					c = buf.get(p);
+					if (c < '0' || c > '9'){
+						return slowParseDouble(buf, s, e);
+					}
+					exp = exp * 10 + (c - '0');
+				}
+				exp10 += isNegativeExp ? -exp : exp;
+				break;
+			}else{
+				//NaN, Infinity, hexadecimal or malformed numbers
+				return slowParseDouble(buf, s, e);
+			}
+		}
+
+		if (!hasDigit){
+			return slowParseDouble(buf, s, e);
+		}
+
+		double v;
+		if (mantissa > MAX_EXACT_MANTISSA){
+			return slowParseDouble(buf, s, e);
+		}else if (mantissa == 0){
+			v = 0.0;
+		}else if (exp10 >= 0 && exp10 < POW10.length){
+			v = mantissa * POW10[exp10];
+		}else if (exp10 < 0 && -exp10 < POW10.length){
+			v = mantissa / POW10[-exp10];
+		}else{
+			return slowParseDouble(buf, s, e);
+		}
+
+		return isNegative ? -v : v;
+	}
+
+	private double slowParseDouble(ByteBuffer buf, int s, int e){
+		return Double.parseDouble(toString(buf, s, e));
+	}
+
+	private String toString(ByteBuffer buf, int s, int e){
+		if (scratch.length < e - s){
+			scratch = new byte[e - s];
+		}
+		for(int p = s; p < e; p++){
+			scratch[p - s] = buf.get(p);
+		}
+		return new String(scratch, 0, e - s, StandardCharsets.US_ASCII);
+	}
+
+
+	/**
+	 * Open addressing hash set of int, used to collect positions without boxing
+	 */
+	static class IntSet{
+
+		private static final int EMPTY = Integer.MIN_VALUE;
+
+		private int[] table = new int[1024];
+
+		private int count = 0;
+
+		//EMPTY marks a free slot, so it is tracked separately
+		private boolean hasEmptyValue = false;
+
+		IntSet(){
+			Arrays.fill(table, EMPTY);
+		}
+
+		void add(int v){
+			if (v == EMPTY){
+				hasEmptyValue = true;
+				return;
+			}
+			int mask = table.length - 1;
+			int slot = mix(v) & mask;
+			while(table[slot] != EMPTY){
+				if (table[slot] == v){
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = v;
+			count++;
+			if (count * 2 > table.length){
+				rehash();
+			}
+		}
+
+		private void rehash(){
+			int[] old = table;
+			table = new int[old.length * 2];
+			Arrays.fill(table, EMPTY);
+			int mask = table.length - 1;
+			for(int v : old){
+				if (v != EMPTY){
+					int slot = mix(v) & mask;
+					while(table[slot] != EMPTY){
+						slot = (slot + 1) & mask;
+					}
+					table[slot] = v;
+				}
+			}
+		}
+
+		private static int mix(int v){
+			int h = v * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		void addAll(IntSet other){
+			if (other.hasEmptyValue){
+				hasEmptyValue = true;
+			}
+			for(int v : other.table){
+				if (v != EMPTY){
+					add(v);
+				}
+			}
+		}
+
+		int[] toSortedArray(){
+			int[] a = new int[count + (hasEmptyValue ? 1 : 0)];
+			int i = 0;
+			if (hasEmptyValue){
+				a[i++] = EMPTY;
+			}
+			for(int v : table){
+				if (v != EMPTY){
+					a[i++] = v;
+				}
+			}
+			Arrays.sort(a);
+			return a;
+		}
+	}
+
+}
@@ -4,7 +4,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
@@ -20,9 +19,16 @@ import java.util.regex.Pattern;
 
 
 import valueObject.Constraint;
+import valueObject.ContactData;
 
 public class Helper {	
-	private DecimalFormat df2 = new DecimalFormat("0.00");
+	//DecimalFormat is not thread safe, structures may be written by several threads
+	private ThreadLocal<DecimalFormat> df2 = new ThreadLocal<DecimalFormat>(){
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("0.00");
+		}
+	};
 	
 	private static Helper helper = new Helper();
 	
@@ -88,56 +94,6 @@ public class Helper {
 	
 	
 	
-	/**
-	 *  Read matrix from file		
-	 * @param Filename
-	 * @return
-	 * @throws FileNotFoundException 
-	 */
-	public String readMatrixtoList(String Filename) throws Exception{		
-			
-		
-		String sep = ",\\s*" ; 	
-		String newFile = "InputData_in_TupleFormat.txt";
-		if (isExist(newFile)) {
-			delete_file(newFile);
-		}
-		FileWriter writer = new FileWriter(newFile, true);
-		
-		 try {
-			 Scanner input = new Scanner (new File( Filename));
-			 	int row = 0;
-			 	double d;
-				while(input.hasNextLine())
-				{	
-					String [] line = null;
-					String rowdata = input.nextLine();					
-				
-					line = rowdata.split(sep);						
-				
-					for(int col = row + 1; col < line.length; col++){						
-						d = Double.parseDouble(line[col]);						
-						if (!Double.isInfinite(d) && !Double.isNaN(d) && d > 0.0   ){
-							 writer.write(String.format("%d\t%d\t%f\n", row, col , d));
-							}
-						
-					}
-					
-					++row;	
-				}			
-				input.close();
-		 	} catch (Exception e) {
-	         e.printStackTrace();
-		 	}	
-		 
-		 System.out.println(String.format("Conversion to List Successful, New File = %s", newFile));
-		 writer.close();
-		 
-		 return newFile;
-	
-	}
-	
-		
 	/**
 	 * Check if a file exist
 	 * @param fileName
@@ -213,121 +169,73 @@ public class Helper {
 
 	/**
 	 * Read contact list file, each line is a contact of the form: pos1 pos1 IF
+	 * 
+	 * The file is parsed in a streaming fashion directly into primitive columns, large files are parsed in parallel, 
+	 * genomic positions are mapped to indices 0..n-1 in increasing order
 	 * @param fileName
-	 * @return
+	 * @param thres: contacts with IF <= thres are dropped, 0 by default
+	 * @return contacts and the sorted list of genomic positions
 	 * @throws Exception
 	 */
-	public List<Constraint> readContactList(String fileName, List<Integer> lstPos,double...thres) throws Exception{
-		File file = new File(fileName);
-		FileReader fr = null;
-		BufferedReader br = null;
-		ArrayList<Constraint> lst = new ArrayList<Constraint>();
-		Set<Integer> setPos = new HashSet<Integer>();
-		double thr = thres.length == 0 ? 0.0 : thres[0];
-		
+	public ContactData readContactList(String fileName, double...thres) throws Exception{
+		return readContactList(fileName, false, thres);
+	}
+	
+	/**
+	 * Read contact list file, each line is a contact of the form: pos1 pos1 IF
+	 * 
+	 * With isCached, the contacts are loaded from a binary cache next to the input file if it is up to date,
+	 * otherwise the file is parsed and the cache is written for the next run
+	 * @param fileName
+	 * @param isCached: use the binary cache of the input file
+	 * @param thres: contacts with IF <= thres are dropped, 0 by default
+	 * @return contacts and the sorted list of genomic positions
+	 * @throws Exception
+	 */
+	public ContactData readContactList(String fileName, boolean isCached, double...thres) throws Exception{
+		return readContacts(fileName, isCached, false, thres.length == 0 ? 0.0 : thres[0]);
+	}
+	
+	/**
+	 * Read a square contact matrix, line i holds the comma separated IFs of row i
+	 * 
+	 * The matrix is parsed in a single streaming pass directly into primitive columns, large files are parsed in parallel by blocks of rows. 
+	 * Only the upper triangle is read, a contact (i, j, IF) is kept for every finite IF > 0 at row i and column j > i
+	 * @param fileName
+	 * @param isCached: use the binary cache of the input file
+	 * @param thres: contacts with IF <= thres are dropped, 0 by default
+	 * @return contacts and the sorted list of row indices that have contacts
+	 * @throws Exception
+	 */
+	public ContactData readContactMatrixAsContacts(String fileName, boolean isCached, double...thres) throws Exception{
+		return readContacts(fileName, isCached, true, thres.length == 0 ? 0.0 : thres[0]);
+	}
+	
+	private ContactData readContacts(String fileName, boolean isCached, boolean isMatrix, double thr) throws Exception{
 		try{
-			Pattern splitRegex = Pattern.compile("[:\\s]+");
-			fr = new FileReader(file);
-			br = new BufferedReader(fr);
-			
-			String ln;
-			String[] st;			
-
-			StringBuilder sb = new StringBuilder();
-			int count = 0;
-			int x,y,nbr = -1; // number of elements in one line
-			double f;
-			int progress = 0;
-			while((ln = br.readLine()) != null){
-				
-				if (ln.startsWith("#") || ln.trim().length() == 0){
-					continue;
-				}
-				if (nbr == -1){
-					nbr = splitRegex.split(ln).length;
+			ContactData data;
+			if (isCached){
+				data = ContactCache.read(fileName, thr);
+				if (data != null){
+					return data;
 				}
-				
-				//read every a thoudsand lines and split at once
-				sb.append(ln).append(" ");
-				count++;
-				
-				if (count == 200000){
-					count = 0;
-					st = splitRegex.split(sb.toString());
-					sb = new StringBuilder();
-					
-					if (st.length % nbr != 0){
-						throw new Exception("There is a line that doesn't contain exactly 3 numbers");
-					}
-					//each line contains 3 numbers
-					for(int i = 0; i < st.length / nbr; i++){
-						x = Integer.parseInt(st[i * nbr + 0]);
-						
-						//position2
-						y = Integer.parseInt(st[i * nbr + 1]);
-						
-						//interaction frequency
-						f = Double.parseDouble(st[i * nbr + 2]);
-						
-						if (x != y && !Double.isNaN(f) && f > thr){
-							lst.add(new Constraint(x, y, f)) ;
-							setPos.add(x);
-							setPos.add(y);
-						}
-						 
-					}
-					progress++;
-					System.out.println(progress * 200000 + " input lines have been read !");
-				}		
 			}
 			
-			//if sb is not empty
-			if (sb.toString().trim().length() > 0){
-				st = splitRegex.split(sb.toString());
-				//sb = new StringBuilder();
-				
-				if (st.length % nbr != 0){
-					throw new Exception("There is a line that doesn't contain exactly 3 numbers");
-				}
-				//each line contains 3 numbers
-				for(int i = 0; i < st.length / nbr; i++){
-					x = Integer.parseInt(st[i * nbr + 0]);
-					
-					//position2
-					y = Integer.parseInt(st[i * nbr + 1]);
-					
-					//interaction frequency
-					f = Double.parseDouble(st[i * nbr + 2]);
-					
-					//keeping absolute positions, so that later they can be recovered from indices
-					
-					if (x != y && !Double.isNaN(f) && f > thr){
-						lst.add(new Constraint(x, y, f)) ;
-						setPos.add(x);
-						setPos.add(y);
-					}
-				}
-				
-			}
+			//large files are split into byte ranges parsed on all cores
+			int nbrThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
 			
+			data = ContactParser.parseFile(fileName, thr, nbrThreads, isMatrix);
 			
-			lstPos.addAll(setPos);
+			if (isCached){
+				ContactCache.write(fileName, thr, data);
+			}
 			
-				
-			Collections.sort(lstPos);
+			return data;
 			
 		}catch(Exception ex){
 			ex.printStackTrace();
 			throw ex;
-		}finally{
-			if (br != null){
-				br.close();
-			}
-			if (fr != null){
-				fr.close();
-			}
-		}		
-		return lst;
+		}
 	}
 
 	/**
@@ -394,9 +302,8 @@ public class Helper {
 		for(int i = 1; i < k; i++){
 			lstSubDataSetId.add(i * size);
 		}
-		if (total % k != 0 || k == 1){
-			lstSubDataSetId.add(total - 1);
-		}
+		//the last subset always ends at the last element, even when total is a multiple of k
+		lstSubDataSetId.add(total - 1);
 	}
 	
 	
@@ -573,17 +480,14 @@ public class Helper {
 	 * @param idToChr: to identify if 2 fragments belong to the same chromosome
 	 * @param header for the pdb file
 	 */
-	public void writeStructure(String pathFilename, double[] structure, HashMap<Integer,Integer> idToChr, String header, boolean... isTranslate) throws IOException{
+	public void writeStructure(String pathFilename, double[] structure, int[] idToChr, String header, boolean... isTranslate) throws IOException{
 
 		//number of fragments
 		int n = structure.length / 3;
 		
 		if (idToChr == null){
-			idToChr = new HashMap<Integer,Integer>();
 			//if idToChr is null, make the whole as one chromosome
-			for(int i = 0; i < n; i++){				
-				idToChr.put(i, 0);				
-			}
+			idToChr = new int[n];
 		}
 		/////////
 		
@@ -645,7 +549,7 @@ public class Helper {
 				line += getResNameString("MET" + "") + " ";//21st space
 				
 				
-				line += getChainIDString((char)(idToChr.get(i) + 'A' ) + "");
+				line += getChainIDString((char)(idToChr[i] + 'A' ) + "");
 				line += getResSeqString(resName + "");
 				//line += getResSeqString("MET" + "");
 				
@@ -668,7 +572,7 @@ public class Helper {
 			}
 			
 			for(int i=1; i<atomSerial-1; i++){
-				if(idToChr.get(i-1) == idToChr.get(i)){
+				if(idToChr[i-1] == idToChr[i]){
 					line = "";
 				}else{
 					line = "#";
@@ -874,7 +778,7 @@ public class Helper {
 	private String getOccupancyString(double x){
 		//55-60
 		int length = 6;
-		String st = df2.format(x);
+		String st = df2.get().format(x);
 		int currentLength = st.length();
 		if (currentLength > length){
 			System.err.println("Error in occupancy, length exceeds " + length);
@@ -890,7 +794,7 @@ public class Helper {
 	private String getTempFactorString(double x){
 		//61-66
 		int length = 6;
-		String st = df2.format(x);
+		String st = df2.get().format(x);
 		int currentLength = st.length();
 		if (currentLength > length){
 			System.err.println("Error in tempFactor, length exceeds " + length);
@@ -23,10 +23,81 @@ public class Constants {
 	
 	public static final String THRESHOLD_KEY = "CONTACT_THRESHOLD";
 	
+	public static final String CACHE_INPUT_KEY = "CACHE_INPUT";
+	
+	public static final String SEARCH_PARALLELISM_KEY = "SEARCH_PARALLELISM";
+	
+	public static final String FACTOR_SEARCH_KEY = "FACTOR_SEARCH";
+	
+	public static final String EARLY_STOPPING_KEY = "EARLY_STOPPING";
+	
+	public static final String ENSEMBLE_PARALLELISM_KEY = "ENSEMBLE_PARALLELISM";
+	
+	public static final String BATCH_SIZE_KEY = "BATCH_SIZE";
+	
+	public static final String OPTIMIZER_KEY = "OPTIMIZER";
+	
+	//values of OPTIMIZER, the first one is the default
+	public static final String[] OPTIMIZERS = {"adagrad", "adam", "rmsprop", "nesterov", "lbfgs"};
+	
+	public static final String LINE_SEARCH_KEY = "LINE_SEARCH";
+	
+	public static final String CONVERGENCE_WINDOW_KEY = "CONVERGENCE_WINDOW";
+	public static final String CONVERGENCE_TOLERANCE_KEY = "CONVERGENCE_TOLERANCE";
+	public static final String MIN_STEP_KEY = "MIN_STEP";
+	public static final String TIME_LIMIT_KEY = "TIME_LIMIT";
+	
+	public static final String RESOLUTION_LEVELS_KEY = "RESOLUTION_LEVELS";
+	
 	
 	//maximum number of threads should be used 
 	public static final int MAX_NUM_THREAD = 120;
 	
+	//range and step of the convert factor search, in hundredths
+	public static final int MIN_CONVERT_FACTOR = 10;
+	public static final int MAX_CONVERT_FACTOR = 200;
+	public static final int CONVERT_FACTOR_STEP = 10;
+	
+	//steps of the adaptive convert factor search in hundredths: the coarse grid, then the refinements around the best factor
+	public static final int[] ADAPTIVE_FACTOR_STEPS = {30, 10, 5};
+	
+	//a refinement candidate is rejected when its correlation is above the best one by this margin
+	public static final double FACTOR_REJECT_MARGIN = 0.05;
+	
+	//successive halving of the convert factor candidates: an optimization goes on at a rung if it is among the best 1/HALVING_RATE,
+	//rungs are at N / HALVING_RATE^k iterations, k = 1..HALVING_RUNGS, N the iterations of the first optimization of the search that finished
+	public static final int HALVING_RATE = 3;
+	public static final int HALVING_RUNGS = 3;
+	
+	//rungs before this iteration are not used
+	public static final int MIN_HALVING_ITERATION = 10;
+	
+	//number of contacts used to estimate the correlation of a candidate at a rung
+	public static final int CORRELATION_SAMPLE_SIZE = 5000;
+	
+	//number of consecutive points in a block when constraints are ordered by tiles for the kernels
+	public static final int TILE_SIZE = 256;
+	
+	//sufficient increase constant of the backtracking line search of gradient ascent
+	public static final double ARMIJO_CONSTANT = 1e-4;
+	
+	//largest step of the line search, as a multiple of the update of the step rule
+	public static final double MAX_STEP_SIZE = 1024;
+	
+	//an optimization stops when the objective function changed by less than CONVERGENCE_TOLERANCE * |objective| 
+	//over the last CONVERGENCE_WINDOW iterations, the window is not used by default
+	public static final int CONVERGENCE_WINDOW = 0;
+	public static final double CONVERGENCE_TOLERANCE = 1e-6;
+	
+	//side of the cube of random initial structures
+	public static final double INITIAL_STRUCTURE_SIZE = 0.1;
+	
+	//number of corrections kept by L-BFGS
+	public static final int LBFGS_MEMORY = 10;
+	
+	//minimum number of constraints handled by one thread when evaluating the gradient in parallel
+	public static final int MIN_CONSTRAINTS_PER_THREAD = 5000;
+	
 	//the starting learning rate for the line search
 	public static double INITIAL_LEARNING_RATE = 0.001;		
 	
@@ -0,0 +1,135 @@
+package valueObject;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact, read-only store of constraints used by the optimization and the evaluation.
+ * Constraint k is described by the k-th element of the parallel arrays pos1, pos2, IF and dist,
+ * so the hot loops walk primitive arrays instead of Constraint objects scattered on the heap.
+ *
+ * The arrays returned by the getters are the backing arrays, they must not be modified
+ *
+ */
+public class ConstraintSet {
+
+	//first position of each constraint, pos1[k] < pos2[k]
+	private final int[] pos1;
+
+	//second position of each constraint
+	private final int[] pos2;
+
+	//interaction frequency
+	private final double[] IF;
+
+	//converted distance from IF
+	private final double[] dist;
+
+	public ConstraintSet(int[] pos1, int[] pos2, double[] iF, double[] dist) {
+		if (pos1.length != pos2.length || pos1.length != iF.length || pos1.length != dist.length){
+			throw new IllegalArgumentException("Columns of a constraint set must have the same length");
+		}
+		this.pos1 = pos1;
+		this.pos2 = pos2;
+		this.IF = iF;
+		this.dist = dist;
+	}
+
+	/**
+	 * Copy a list of constraints into a constraint set, the order of the list is kept
+	 * @param lst
+	 */
+	public ConstraintSet(List<Constraint> lst) {
+		int m = lst.size();
+		pos1 = new int[m];
+		pos2 = new int[m];
+		IF = new double[m];
+		dist = new double[m];
+
+		Constraint con;
+		for(int k = 0; k < m; k++){
+			con = lst.get(k);
+			pos1[k] = con.getPos1();
+			pos2[k] = con.getPos2();
+			IF[k] = con.getIF();
+			dist[k] = con.getDist();
+		}
+	}
+
+	/**
+	 * Copy the constraints in tile order: points are grouped into blocks of tileSize consecutive points,
+	 * a tile holds the constraints between two blocks, and tiles follow the Morton (Z-order) curve over the block indices.
+	 * Constraints of a tile are next to each other and touch at most 2 * tileSize points, so their coordinates stay in cache.
+	 * Constraints in the same tile keep their order
+	 * @param tileSize: number of points of a block
+	 * @return a new constraint set, this one is not changed
+	 */
+	public ConstraintSet toTileOrder(int tileSize){
+		int m = size();
+		int maxPos = 0;
+		for(int k = 0; k < m; k++){
+			maxPos = Math.max(maxPos, pos2[k]);
+		}
+		//block indices must fit into 16 bits for the Morton code
+		tileSize = Math.max(tileSize, maxPos / 0xFFFF + 1);
+
+		//Morton code of the tile (32 bits) in bits 31 to 62, the index (31 bits) in the low bits, so sorting keeps the order inside a tile.
+		//The sign bit stays clear, so signed sorting follows the Morton order
+		long[] keys = new long[m];
+		for(int k = 0; k < m; k++){
+			keys[k] = (interleave(pos1[k] / tileSize) | (interleave(pos2[k] / tileSize) << 1)) << 31 | k;
+		}
+		Arrays.sort(keys);
+
+		int[] p1 = new int[m], p2 = new int[m];
+		double[] f = new double[m], d = new double[m];
+		int id;
+		for(int k = 0; k < m; k++){
+			id = (int) (keys[k] & Integer.MAX_VALUE);
+			p1[k] = pos1[id];
+			p2[k] = pos2[id];
+			f[k] = IF[id];
+			d[k] = dist[id];
+		}
+		return new ConstraintSet(p1, p2, f, d);
+	}
+
+	/**
+	 * Spread the 16 lower bits of a number to the even bits
+	 * @param x
+	 * @return
+	 */
+	private static long interleave(int x){
+		long v = x & 0xFFFF;
+		v = (v | (v << 8)) & 0x00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0FL;
+		v = (v | (v << 2)) & 0x33333333L;
+		v = (v | (v << 1)) & 0x55555555L;
+		return v;
+	}
+
+	/**
+	 *
+	 * @return number of constraints
+	 */
+	public int size() {
+		return pos1.length;
+	}
+
+	public int[] getPos1() {
+		return pos1;
+	}
+
+	public int[] getPos2() {
+		return pos2;
+	}
+
+	public double[] getIF() {
+		return IF;
+	}
+
+	public double[] getDist() {
+		return dist;
+	}
+
+}
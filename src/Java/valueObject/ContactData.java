@@ -0,0 +1,175 @@
+package valueObject;
+
+import java.util.Arrays;
+
+/**
+ * Contacts as read from an input file, kept in primitive columns.
+ * Genomic positions are already mapped to indices 0..n-1, positions[i] is the genomic position of index i
+ *
+ * Contact k is (pos1[k], pos2[k], IF[k]) with pos1[k] < pos2[k], only the first size elements of the columns are used
+ *
+ */
+public class ContactData {
+
+	//sorted genomic positions, the index of a position is its id in the structure
+	private int[] positions;
+
+	private int[] pos1;
+
+	private int[] pos2;
+
+	//interaction frequency as read from the input
+	private double[] IF;
+
+	//number of contacts
+	private int size;
+
+	public ContactData(int[] positions, int[] pos1, int[] pos2, double[] iF, int size) {
+		this.positions = positions;
+		this.pos1 = pos1;
+		this.pos2 = pos2;
+		this.IF = iF;
+		this.size = size;
+	}
+
+	/**
+	 * Sort contacts by (pos1, pos2), contacts with the same positions keep their order
+	 */
+	public void sort(){
+		boolean isSorted = true;
+		for(int k = 1; k < size && isSorted; k++){
+			isSorted = compare(k - 1, k) <= 0;
+		}
+		if (isSorted){
+			return;
+		}
+
+		//merge sort on indices, then reorder the columns once
+		int[] idx = new int[size];
+		int[] tmp = new int[size];
+		for(int k = 0; k < size; k++){
+			idx[k] = k;
+		}
+		for(int width = 1; width < size; width *= 2){
+			for(int lo = 0; lo < size - width; lo += 2 * width){
+				merge(idx, tmp, lo, lo + width, Math.min(lo + 2 * width, size));
+			}
+		}
+		tmp = null;
+
+		int[] p1 = new int[size];
+		int[] p2 = new int[size];
+		for(int k = 0; k < size; k++){
+			p1[k] = pos1[idx[k]];
+			p2[k] = pos2[idx[k]];
+		}
+		pos1 = p1;
+		pos2 = p2;
+
+		double[] f = new double[size];
+		for(int k = 0; k < size; k++){
+			f[k] = IF[idx[k]];
+		}
+		IF = f;
+	}
+
+	private void merge(int[] idx, int[] tmp, int lo, int mid, int hi){
+		int i = lo, j = mid;
+		for(int k = lo; k < hi; k++){
+			if (j >= hi || (i < mid && compare(idx[i], idx[j]) <= 0)){
+				tmp[k] = idx[i++];
+			}else{
+				tmp[k] = idx[j++];
+			}
+		}
+		System.arraycopy(tmp, lo, idx, lo, hi - lo);
+	}
+
+	/**
+	 * Bin the contacts to a coarser resolution, the IFs of the contacts between the same bins are summed
+	 * and contacts inside a bin are dropped
+	 * @param toBin: bin of every point, bins must not decrease with the points
+	 * @param binPositions: genomic position of every bin
+	 * @return sorted contacts between bins, the columns have exactly size() elements
+	 */
+	public ContactData bin(int[] toBin, int[] binPositions){
+		int[] p1 = new int[size];
+		int[] p2 = new int[size];
+		double[] f = new double[size];
+		int m = 0;
+		for(int k = 0; k < size; k++){
+			if (toBin[pos1[k]] != toBin[pos2[k]]){
+				p1[m] = toBin[pos1[k]];
+				p2[m] = toBin[pos2[k]];
+				f[m] = IF[k];
+				m++;
+			}
+		}
+
+		ContactData binned = new ContactData(binPositions, p1, p2, f, m);
+		binned.sort();
+
+		//contacts between the same bins are next to each other after sorting
+		p1 = binned.pos1;
+		p2 = binned.pos2;
+		f = binned.IF;
+		int count = 0;
+		for(int k = 0; k < m; k++){
+			if (count > 0 && p1[count - 1] == p1[k] && p2[count - 1] == p2[k]){
+				f[count - 1] += f[k];
+			}else{
+				p1[count] = p1[k];
+				p2[count] = p2[k];
+				f[count] = f[k];
+				count++;
+			}
+		}
+		binned.size = count;
+		if (count < p1.length){
+			binned.pos1 = Arrays.copyOf(p1, count);
+			binned.pos2 = Arrays.copyOf(p2, count);
+			binned.IF = Arrays.copyOf(f, count);
+		}
+
+		return binned;
+	}
+
+	private int compare(int a, int b){
+		if (pos1[a] != pos1[b]){
+			return pos1[a] < pos1[b] ? -1 : 1;
+		}
+		if (pos2[a] != pos2[b]){
+			return pos2[a] < pos2[b] ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 *
+	 * @return number of points (beads)
+	 */
+	public int getNumberOfPoints() {
+		return positions.length;
+	}
+
+	public int[] getPositions() {
+		return positions;
+	}
+
+	public int[] getPos1() {
+		return pos1;
+	}
+
+	public int[] getPos2() {
+		return pos2;
+	}
+
+	public double[] getIF() {
+		return IF;
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
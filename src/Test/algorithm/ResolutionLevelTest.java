@@ -0,0 +1,65 @@
+package algorithm;
+
+import valueObject.ContactData;
+
+/**
+ * Checks the contacts of a coarse resolution level: binned columns have exactly size() elements,
+ * and the average distance used to scale wish distances only sees the binned contacts.
+ * Run with: java -cp <classes> algorithm.ResolutionLevelTest, it exits with an error if a check fails
+ *
+ */
+public class ResolutionLevelTest {
+
+	public static void main(String[] args) throws Exception{
+		testBinnedColumns();
+		testAverageDistance();
+		System.out.println("ResolutionLevelTest passed");
+	}
+
+	/**
+	 * 6 points in 3 bins of 2 points: contacts inside a bin are dropped, contacts between the same bins are summed
+	 */
+	private static ContactData binExample(){
+		int[] positions = {0, 1, 2, 3, 4, 5};
+		int[] pos1 = {0, 0, 1, 2, 3, 4, 0};
+		int[] pos2 = {1, 2, 3, 4, 5, 5, 5};
+		double[] IF = {1.0, 2.0, 3.0, 4.0, 1.0, 7.0, 2.0};
+		ContactData contacts = new ContactData(positions, pos1, pos2, IF, IF.length);
+		return contacts.bin(new int[]{0, 0, 1, 1, 2, 2}, new int[]{0, 2, 4});
+	}
+
+	private static void testBinnedColumns(){
+		ContactData binned = binExample();
+
+		check(binned.size() == 3, "3 contacts between bins, found " + binned.size());
+		check(binned.getPos1().length == binned.size(), "pos1 has " + binned.getPos1().length + " elements for " + binned.size() + " contacts");
+		check(binned.getPos2().length == binned.size(), "pos2 has " + binned.getPos2().length + " elements for " + binned.size() + " contacts");
+		check(binned.getIF().length == binned.size(), "IF has " + binned.getIF().length + " elements for " + binned.size() + " contacts");
+
+		int[][] expected = {{0, 1}, {0, 2}, {1, 2}};
+		double[] expectedIF = {5.0, 2.0, 5.0};
+		for(int k = 0; k < expected.length; k++){
+			check(binned.getPos1()[k] == expected[k][0] && binned.getPos2()[k] == expected[k][1] && binned.getIF()[k] == expectedIF[k],
+					"contact " + k + " is (" + binned.getPos1()[k] + ", " + binned.getPos2()[k] + ", " + binned.getIF()[k] + ")");
+		}
+	}
+
+	private static void testAverageDistance(){
+		double[] IF = binExample().getIF();
+
+		//(1/5 + 1/2 + 1/5) / 3
+		double avgDist = StructureGenerator3DMax.averageDistance(IF, 1.0);
+		check(Math.abs(avgDist - 0.3) < 1e-12, "average distance with convert factor 1 is " + avgDist + ", expected 0.3");
+
+		//(2/sqrt(5) + 1/sqrt(2)) / 3
+		double expected = (2 / Math.sqrt(5) + 1 / Math.sqrt(2)) / 3;
+		avgDist = StructureGenerator3DMax.averageDistance(IF, 0.5);
+		check(Math.abs(avgDist - expected) < 1e-12, "average distance with convert factor 0.5 is " + avgDist + ", expected " + expected);
+	}
+
+	private static void check(boolean condition, String message){
+		if (!condition){
+			throw new AssertionError(message);
+		}
+	}
+}